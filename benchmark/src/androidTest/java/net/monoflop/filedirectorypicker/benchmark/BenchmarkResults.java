@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker.benchmark;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Collects the results of one benchmark run and writes them as json.
+ * The report is stored in the external files directory of the test app (benchmark/report.json)
+ * and each result is additionally sent as instrumentation status, so it shows up in the
+ * output of "am instrument -r" and can be collected without pulling files.
+ *
+ * @author Philipp Kutsch
+ */
+class BenchmarkResults
+{
+	private static final String TAG = "PickerBenchmark";
+	//Status code of result reports, test runners ignore unknown codes
+	private static final int STATUS_CODE_RESULT = 2;
+	private static final String STATUS_KEY_RESULT = "pickerBenchmark";
+
+	private final Instrumentation instrumentation;
+	private final File reportFile;
+	private final JSONObject report;
+
+	BenchmarkResults(@NonNull Instrumentation instrumentation)
+	{
+		this.instrumentation = instrumentation;
+		Context context = instrumentation.getTargetContext();
+		//External files are readable by adb without root
+		File filesDirectory = context.getExternalFilesDir(null);
+		if(filesDirectory == null)filesDirectory = context.getFilesDir();
+		this.reportFile = new File(new File(filesDirectory, "benchmark"), "report.json");
+		this.report = new JSONObject();
+	}
+
+	/**
+	 * Adds the result of a benchmark to the report and writes the report.
+	 *
+	 * @param name Benchmark name, e.g. "openFlat"
+	 * @param result Result values
+	 * @throws IOException If the report can not be written
+	 */
+	synchronized void record(@NonNull String name, @NonNull JSONObject result) throws IOException
+	{
+		try
+		{
+			report.put(name, result);
+		}
+		catch(JSONException e)
+		{
+			throw new IOException(e);
+		}
+
+		Log.i(TAG, name + ": " + result);
+		Bundle status = new Bundle();
+		status.putString(STATUS_KEY_RESULT, name + " " + result);
+		instrumentation.sendStatus(STATUS_CODE_RESULT, status);
+
+		File directory = reportFile.getParentFile();
+		if(!directory.mkdirs() && !directory.isDirectory())
+			throw new IOException("Could not create " + directory);
+		try(Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), Charset.forName("UTF-8")))
+		{
+			writer.write(report.toString(2));
+		}
+		catch(JSONException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Summarizes durations as min, median, p90 and max in microseconds.
+	 *
+	 * @param durations Durations in nanoseconds
+	 * @return Summary, empty if there are no durations
+	 */
+	@NonNull
+	static JSONObject summarize(@NonNull long[] durations)
+	{
+		JSONObject summary = new JSONObject();
+		if(durations.length == 0)return summary;
+
+		long[] sorted = durations.clone();
+		Arrays.sort(sorted);
+		try
+		{
+			summary.put("count", sorted.length);
+			summary.put("minUs", sorted[0] / 1000);
+			summary.put("medianUs", percentile(sorted, 50) / 1000);
+			summary.put("p90Us", percentile(sorted, 90) / 1000);
+			summary.put("maxUs", sorted[sorted.length - 1] / 1000);
+		}
+		catch(JSONException e)
+		{
+			//Keys are never null and all numbers are finite
+			throw new IllegalStateException(e);
+		}
+		return summary;
+	}
+
+	/**
+	 * @param sorted Sorted values
+	 * @param percentile Percentile between 0 and 100
+	 * @return Nearest rank percentile
+	 */
+	static long percentile(@NonNull long[] sorted, int percentile)
+	{
+		int rank = (int)Math.ceil(percentile / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker.benchmark;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Synthetic directory trees the benchmarks are run against.
+ * Trees are generated once per device and reused by later runs,
+ * a hidden marker file is written after a tree was completed.
+ *
+ * @author Philipp Kutsch
+ */
+class FixtureTree
+{
+	//Bump to regenerate trees of older runs
+	private static final int VERSION = 1;
+	private static final String MARKER = ".fixture-v" + VERSION;
+	private static final String[] FILE_ENDINGS = {"txt", "jpg", "pdf", "mp3", "zip"};
+
+	static final int FLAT_FILES = 50000;
+	static final int DEEP_LEVELS = 20;
+	static final int SMALL_FOLDERS = 1000;
+	static final int FILES_PER_FOLDER = 10;
+
+	/**
+	 * Flat : Single folder containing {@link #FLAT_FILES} files
+	 * Deep : Chain of {@link #DEEP_LEVELS} nested folders
+	 * SmallFolders : {@link #SMALL_FOLDERS} folders
+	 * Nested folders contain {@link #FILES_PER_FOLDER} files each.
+	 */
+	enum Shape
+	{
+		Flat("flat"),
+		Deep("deep"),
+		SmallFolders("small");
+
+		private final String directoryName;
+
+		Shape(String directoryName)
+		{
+			this.directoryName = directoryName;
+		}
+	}
+
+	private final File fixtureDirectory;
+
+	FixtureTree(@NonNull File fixtureDirectory)
+	{
+		this.fixtureDirectory = fixtureDirectory;
+	}
+
+	/**
+	 * Returns the root of the given shape, the tree is generated if missing.
+	 *
+	 * @param shape Tree shape
+	 * @return Root directory of the tree
+	 * @throws IOException If the tree can not be written
+	 */
+	@NonNull
+	File get(@NonNull Shape shape) throws IOException
+	{
+		File root = new File(fixtureDirectory, shape.directoryName);
+		File marker = new File(root, MARKER);
+		if(marker.exists())return root;
+
+		delete(root);
+		mkdirs(root);
+		switch(shape)
+		{
+			case Flat:
+				createFiles(root, FLAT_FILES);
+				break;
+			case Deep:
+				for(int level = 0; level < DEEP_LEVELS; level++)
+				{
+					File folder = getDeepFolder(root, level);
+					mkdirs(folder);
+					createFiles(folder, FILES_PER_FOLDER);
+				}
+				break;
+			case SmallFolders:
+				for(int i = 0; i < SMALL_FOLDERS; i++)
+				{
+					File child = new File(root, String.format(Locale.US, "folder_%04d", i));
+					mkdirs(child);
+					createFiles(child, FILES_PER_FOLDER);
+				}
+				break;
+		}
+
+		if(!marker.createNewFile())
+			throw new IOException("Could not create " + marker);
+		return root;
+	}
+
+	/**
+	 * Returns the folder at the given level of the deep tree.
+	 *
+	 * @param root Root returned for {@link Shape#Deep}
+	 * @param level Level, 0 is the root and {@link #DEEP_LEVELS} - 1 the innermost folder
+	 * @return Folder at the level
+	 */
+	@NonNull
+	static File getDeepFolder(@NonNull File root, int level)
+	{
+		File folder = root;
+		for(int i = 1; i <= level; i++)
+		{
+			folder = new File(folder, String.format(Locale.US, "level_%02d", i));
+		}
+		return folder;
+	}
+
+	private static void createFiles(@NonNull File folder, int count) throws IOException
+	{
+		for(int i = 0; i < count; i++)
+		{
+			File file = new File(folder, String.format(Locale.US, "file_%05d.%s", i, FILE_ENDINGS[i % FILE_ENDINGS.length]));
+			if(!file.createNewFile() && !file.exists())
+				throw new IOException("Could not create " + file);
+		}
+	}
+
+	private static void mkdirs(@NonNull File folder) throws IOException
+	{
+		if(!folder.mkdirs() && !folder.isDirectory())
+			throw new IOException("Could not create " + folder);
+	}
+
+	private static void delete(@NonNull File file)
+	{
+		File[] children = file.listFiles();
+		if(children != null)
+		{
+			for(File child : children)
+			{
+				delete(child);
+			}
+		}
+		//noinspection ResultOfMethodCallIgnored
+		file.delete();
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker.benchmark;
+
+import android.app.Instrumentation;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.ActivityTestRule;
+
+import net.monoflop.filedirectorypicker.FileDirectoryPickerDialog;
+import net.monoflop.filedirectorypicker.ListingMetrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Measures the picker on a device against the synthetic trees of {@link FixtureTree}.
+ * Timings are taken from the {@link ListingMetrics} reported by the dialog,
+ * frame durations from {@link FrameMetrics} (API 24+).
+ * Results are written by {@link BenchmarkResults}.
+ *
+ * @author Philipp Kutsch
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class PickerBenchmark
+{
+	private static final String TAG = "PickerBenchmark";
+	private static final int ITERATIONS = 5;
+	private static final int FLINGS = 10;
+	private static final int FLING_VELOCITY = 20000;
+	private static final long LISTING_TIMEOUT_SECONDS = 120;
+	private static final long IDLE_TIMEOUT_MILLIS = 10000;
+
+	//Metrics are reported on the ui thread, the listener is passed to the dialog through its arguments
+	private static final BlockingQueue<ListingMetrics> metricsQueue = new LinkedBlockingQueue<>();
+
+	@Rule
+	public ActivityTestRule<BenchmarkActivity> activityRule = new ActivityTestRule<>(BenchmarkActivity.class);
+
+	private Instrumentation instrumentation;
+	private FixtureTree fixtureTree;
+	private BenchmarkResults results;
+
+	@Before
+	public void setUp()
+	{
+		instrumentation = InstrumentationRegistry.getInstrumentation();
+		fixtureTree = new FixtureTree(new File(instrumentation.getTargetContext().getFilesDir(), "fixtures"));
+		results = new BenchmarkResults(instrumentation);
+	}
+
+	@Test
+	public void openToFirstFrame() throws IOException, InterruptedException
+	{
+		for(FixtureTree.Shape shape : FixtureTree.Shape.values())
+		{
+			File root = fixtureTree.get(shape);
+			long[] firstFrameTimes = new long[ITERATIONS];
+			ListingMetrics metrics = null;
+			for(int i = 0; i < ITERATIONS; i++)
+			{
+				FileDirectoryPickerDialog dialog = show(root, false);
+				metrics = takeMetrics();
+				firstFrameTimes[i] = metrics.getFirstFrameTime();
+				dismiss(dialog);
+			}
+			results.record("openToFirstFrame" + shape.name(), result(firstFrameTimes, metrics));
+		}
+	}
+
+	@Test
+	public void navigationLatency() throws IOException, InterruptedException
+	{
+		File root = fixtureTree.get(FixtureTree.Shape.Deep);
+		long[] firstFrameTimes = new long[ITERATIONS * (FixtureTree.DEEP_LEVELS - 1)];
+		ListingMetrics metrics = null;
+		for(int i = 0; i < ITERATIONS; i++)
+		{
+			FileDirectoryPickerDialog dialog = show(root, false);
+			takeMetrics();
+			for(int level = 1; level < FixtureTree.DEEP_LEVELS; level++)
+			{
+				FileDirectoryPickerDialog.Entry entry = new FileDirectoryPickerDialog.Entry();
+				entry.setEntryType(FileDirectoryPickerDialog.Entry.EntryType.Folder);
+				entry.setFile(FixtureTree.getDeepFolder(root, level));
+				dialog.onFolderClicked(entry);
+
+				metrics = takeMetrics();
+				firstFrameTimes[i * (FixtureTree.DEEP_LEVELS - 1) + level - 1] = metrics.getFirstFrameTime();
+			}
+			dismiss(dialog);
+		}
+		results.record("navigationDeep", result(firstFrameTimes, metrics));
+	}
+
+	@Test
+	public void flingJank() throws IOException, InterruptedException
+	{
+		Assume.assumeTrue("FrameMetrics require API 24", Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+
+		File root = fixtureTree.get(FixtureTree.Shape.Flat);
+		FileDirectoryPickerDialog dialog = show(root, false);
+		takeMetrics();
+		List<Long> frameDurations = measureFlings(dialog);
+		dismiss(dialog);
+
+		long[] durations = new long[frameDurations.size()];
+		long frameBudget = (long)(1000000000L / activityRule.getActivity().getWindowManager().getDefaultDisplay().getRefreshRate());
+		int jankyFrames = 0;
+		for(int i = 0; i < durations.length; i++)
+		{
+			durations[i] = frameDurations.get(i);
+			if(durations[i] > frameBudget)jankyFrames++;
+		}
+
+		JSONObject result = BenchmarkResults.summarize(durations);
+		try
+		{
+			result.put("frameBudgetUs", frameBudget / 1000);
+			result.put("jankyFrames", jankyFrames);
+			result.put("jankPercent", durations.length == 0 ? 0 : 100.0 * jankyFrames / durations.length);
+		}
+		catch(JSONException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		results.record("flingJankFlat", result);
+	}
+
+	@Test
+	public void directoryInfoComplete() throws IOException, InterruptedException
+	{
+		File root = fixtureTree.get(FixtureTree.Shape.SmallFolders);
+		long[] completeTimes = new long[ITERATIONS];
+		ListingMetrics metrics = null;
+		for(int i = 0; i < ITERATIONS; i++)
+		{
+			FileDirectoryPickerDialog dialog = show(root, true);
+			metrics = takeMetrics();
+			completeTimes[i] = metrics.getCompleteTime();
+			dismiss(dialog);
+		}
+		results.record("directoryInfoSmallFolders", result(completeTimes, metrics));
+	}
+
+	/**
+	 * Shows a new dialog for the given root. Snapshots are disabled so every listing reads the disk.
+	 *
+	 * @param root Root directory
+	 * @param showDirectoryInfo Crawl folder infos
+	 * @return Shown dialog
+	 */
+	@NonNull
+	private FileDirectoryPickerDialog show(@NonNull File root, boolean showDirectoryInfo)
+	{
+		metricsQueue.clear();
+		FileDirectoryPickerDialog dialog = FileDirectoryPickerDialog.newInstance(
+				new FileDirectoryPickerDialog.Builder()
+						.requestPermission(false)
+						.rootDirectory(root)
+						.cacheListings(false)
+						.showDirectoryInfo(showDirectoryInfo)
+						.withMetricsListener(metricsQueue::add)
+						.build());
+		instrumentation.runOnMainSync(() ->
+				dialog.show(activityRule.getActivity().getSupportFragmentManager(), TAG));
+		return dialog;
+	}
+
+	private void dismiss(@NonNull FileDirectoryPickerDialog dialog)
+	{
+		instrumentation.runOnMainSync(dialog::dismissAllowingStateLoss);
+		instrumentation.waitForIdleSync();
+	}
+
+	@NonNull
+	private static ListingMetrics takeMetrics() throws InterruptedException
+	{
+		ListingMetrics metrics = metricsQueue.poll(LISTING_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertNotNull("Listing did not complete", metrics);
+		return metrics;
+	}
+
+	/**
+	 * Flings the entry list down and up and collects the durations of all frames drawn meanwhile.
+	 *
+	 * @param dialog Shown dialog
+	 * @return Frame durations in nanoseconds
+	 */
+	@RequiresApi(Build.VERSION_CODES.N)
+	@NonNull
+	private List<Long> measureFlings(@NonNull FileDirectoryPickerDialog dialog) throws InterruptedException
+	{
+		RecyclerView recyclerView = dialog.getView() != null
+				? dialog.getView().findViewById(net.monoflop.filedirectorypicker.R.id.structureRecycler) : null;
+		assertNotNull("Entry list not shown", recyclerView);
+		Window window = dialog.getDialog().getWindow();
+		assertNotNull("Dialog has no window", window);
+
+		List<Long> frameDurations = new ArrayList<>();
+		HandlerThread metricsThread = new HandlerThread(TAG);
+		metricsThread.start();
+		Window.OnFrameMetricsAvailableListener listener = (frameWindow, frameMetrics, dropCount) ->
+		{
+			synchronized(frameDurations)
+			{
+				frameDurations.add(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION));
+			}
+		};
+		instrumentation.runOnMainSync(() ->
+				window.addOnFrameMetricsAvailableListener(listener, new Handler(metricsThread.getLooper())));
+
+		for(int i = 0; i < FLINGS; i++)
+		{
+			int velocity = i % 2 == 0 ? FLING_VELOCITY : -FLING_VELOCITY;
+			instrumentation.runOnMainSync(() -> recyclerView.fling(0, velocity));
+			awaitScrollIdle(recyclerView);
+		}
+
+		instrumentation.runOnMainSync(() -> window.removeOnFrameMetricsAvailableListener(listener));
+		metricsThread.quitSafely();
+		synchronized(frameDurations)
+		{
+			return new ArrayList<>(frameDurations);
+		}
+	}
+
+	private void awaitScrollIdle(@NonNull RecyclerView recyclerView) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MILLIS;
+		boolean[] idle = new boolean[1];
+		do
+		{
+			Thread.sleep(16);
+			instrumentation.runOnMainSync(() -> idle[0] = recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE);
+		}
+		while(!idle[0] && System.currentTimeMillis() < deadline);
+		if(!idle[0])fail("Fling did not settle");
+	}
+
+	/**
+	 * @param durations Measured durations in nanoseconds
+	 * @param lastMetrics Metrics of the last listing, added for context
+	 * @return Summary of the durations
+	 */
+	@NonNull
+	private static JSONObject result(@NonNull long[] durations, ListingMetrics lastMetrics)
+	{
+		JSONObject result = BenchmarkResults.summarize(durations);
+		try
+		{
+			if(lastMetrics != null)result.put("lastListing", lastMetrics.toJson());
+		}
+		catch(JSONException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Complete entry lists of the folders above the current folder.
+ *
+ * Lists are stored while the user descends and handed back when the user
+ * jumps to an ancestor, so going up costs no listing. Every stored folder
+ * is watched and dropped as soon as its content changes.
+ *
+ * @author Philipp Kutsch
+ */
+final class AncestorCache
+{
+	private final StorageBackend storageBackend;
+
+	//Path -> cached listing, guarded by this
+	private final Map<String, CachedListing> listings = new HashMap<>();
+
+	AncestorCache(@NonNull StorageBackend storageBackend)
+	{
+		this.storageBackend = storageBackend;
+	}
+
+	/**
+	 * Stores the complete entry list of a folder.
+	 * Nothing is stored if the folder can not be watched.
+	 *
+	 * @param directory Folder
+	 * @param entries Entries including the navigate back entry
+	 */
+	@UiThread
+	void put(@NonNull File directory, @NonNull List<FileDirectoryPickerDialog.Entry> entries)
+	{
+		String path = directory.getAbsolutePath();
+		CachedListing cachedListing = new CachedListing(new ArrayList<>(entries));
+		try
+		{
+			cachedListing.watch = storageBackend.watch(directory, (changedDirectory) -> invalidate(path, cachedListing));
+		}
+		catch(IOException e)
+		{
+			//Listings which can not be revalidated are not cached
+			return;
+		}
+
+		CachedListing previous;
+		synchronized(this)
+		{
+			previous = listings.put(path, cachedListing);
+		}
+		if(previous != null)close(previous);
+	}
+
+	/**
+	 * Removes and returns the stored entry list of a folder.
+	 *
+	 * @param directory Folder
+	 * @return Entries or null if the folder is not cached or changed meanwhile
+	 */
+	@Nullable
+	@UiThread
+	List<FileDirectoryPickerDialog.Entry> remove(@NonNull File directory)
+	{
+		CachedListing cachedListing;
+		synchronized(this)
+		{
+			cachedListing = listings.remove(directory.getAbsolutePath());
+		}
+		if(cachedListing == null)return null;
+
+		close(cachedListing);
+		return cachedListing.entries;
+	}
+
+	/**
+	 * Drops all folders which are not an ancestor of the directory.
+	 *
+	 * @param directory Current folder
+	 */
+	@UiThread
+	void retainAncestorsOf(@NonNull File directory)
+	{
+		String path = directory.getAbsolutePath();
+		List<CachedListing> dropped = new ArrayList<>();
+		synchronized(this)
+		{
+			Iterator<Map.Entry<String, CachedListing>> iterator = listings.entrySet().iterator();
+			while(iterator.hasNext())
+			{
+				Map.Entry<String, CachedListing> entry = iterator.next();
+				String ancestorPath = entry.getKey();
+				boolean ancestor = path.startsWith(ancestorPath.endsWith(File.separator)
+						? ancestorPath : ancestorPath + File.separator);
+				if(!ancestor)
+				{
+					dropped.add(entry.getValue());
+					iterator.remove();
+				}
+			}
+		}
+		for(CachedListing cachedListing : dropped)close(cachedListing);
+	}
+
+	/**
+	 * Drops all folders.
+	 */
+	@UiThread
+	void clear()
+	{
+		List<CachedListing> dropped;
+		synchronized(this)
+		{
+			dropped = new ArrayList<>(listings.values());
+			listings.clear();
+		}
+		for(CachedListing cachedListing : dropped)close(cachedListing);
+	}
+
+	/**
+	 * Called by the watch on any thread.
+	 */
+	private void invalidate(@NonNull String path, @NonNull CachedListing cachedListing)
+	{
+		synchronized(this)
+		{
+			//Only drop the listing this watch belongs to
+			if(listings.get(path) != cachedListing)return;
+			listings.remove(path);
+		}
+		close(cachedListing);
+	}
+
+	private static void close(@NonNull CachedListing cachedListing)
+	{
+		try
+		{
+			if(cachedListing.watch != null)cachedListing.watch.close();
+		}
+		catch(IOException e)
+		{
+			//Watch is dropped anyway
+		}
+	}
+
+	private static final class CachedListing
+	{
+		private final List<FileDirectoryPickerDialog.Entry> entries;
+		private volatile Closeable watch;
+
+		CachedListing(@NonNull List<FileDirectoryPickerDialog.Entry> entries)
+		{
+			this.entries = entries;
+		}
+	}
+}
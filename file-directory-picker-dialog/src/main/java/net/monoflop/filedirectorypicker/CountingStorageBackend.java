@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage decorator counting the calls to another storage backend.
+ * Intended to check the number of storage operations a listing, crawl or
+ * selection expansion performs, e.g. to catch repeated listings of the same directory.
+ *
+ * @author Philipp Kutsch
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class CountingStorageBackend implements StorageBackend
+{
+	private final StorageBackend storageBackend;
+
+	private final AtomicLong listCount = new AtomicLong();
+	private final AtomicLong listedChildCount = new AtomicLong();
+	private final AtomicLong statCount = new AtomicLong();
+	private final AtomicLong isEmptyCount = new AtomicLong();
+	private final AtomicLong readHeaderCount = new AtomicLong();
+	private final AtomicLong watchCount = new AtomicLong();
+
+	/**
+	 * @param storageBackend Counted storage
+	 */
+	public CountingStorageBackend(@NonNull StorageBackend storageBackend)
+	{
+		this.storageBackend = storageBackend;
+	}
+
+	@NonNull
+	@Override
+	public List<Attributes> list(@NonNull File directory) throws IOException
+	{
+		listCount.incrementAndGet();
+		List<Attributes> children = storageBackend.list(directory);
+		listedChildCount.addAndGet(children.size());
+		return children;
+	}
+
+	@Nullable
+	@Override
+	public Attributes stat(@NonNull File file)
+	{
+		statCount.incrementAndGet();
+		return storageBackend.stat(file);
+	}
+
+	@Override
+	public boolean isEmpty(@NonNull File directory)
+	{
+		isEmptyCount.incrementAndGet();
+		return storageBackend.isEmpty(directory);
+	}
+
+	@Override
+	public int readHeader(@NonNull File file, @NonNull byte[] buffer) throws IOException
+	{
+		readHeaderCount.incrementAndGet();
+		return storageBackend.readHeader(file, buffer);
+	}
+
+	@NonNull
+	@Override
+	public Closeable watch(@NonNull File directory, @NonNull WatchListener listener) throws IOException
+	{
+		watchCount.incrementAndGet();
+		return storageBackend.watch(directory, listener);
+	}
+
+	/**
+	 * @return Number of listed directories
+	 */
+	public long getListCount()
+	{
+		return listCount.get();
+	}
+
+	/**
+	 * @return Number of children returned by all listings
+	 */
+	public long getListedChildCount()
+	{
+		return listedChildCount.get();
+	}
+
+	public long getStatCount()
+	{
+		return statCount.get();
+	}
+
+	public long getIsEmptyCount()
+	{
+		return isEmptyCount.get();
+	}
+
+	/**
+	 * @return Number of files whose first bytes were read
+	 */
+	public long getReadHeaderCount()
+	{
+		return readHeaderCount.get();
+	}
+
+	public long getWatchCount()
+	{
+		return watchCount.get();
+	}
+
+	/**
+	 * @return Number of list, stat, isEmpty and readHeader calls
+	 */
+	public long getOperationCount()
+	{
+		return listCount.get() + statCount.get() + isEmptyCount.get() + readHeaderCount.get();
+	}
+
+	/**
+	 * Sets all counters to 0.
+	 */
+	public void reset()
+	{
+		listCount.set(0);
+		listedChildCount.set(0);
+		statCount.set(0);
+		isEmptyCount.set(0);
+		readHeaderCount.set(0);
+		watchCount.set(0);
+	}
+}
@@ -0,0 +1,971 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.os.TraceCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless directory listing engine.
+ * The FileDirectoryPickerDialog is built on top of this class and
+ * host applications can use it to list folders in their own screens.
+ * Listing, filtering and crawling only depend on the configured {@link StorageBackend},
+ * so the engine also runs on the plain JVM with an {@link InMemoryStorageBackend}.
+ *
+ * Listing results are published to a {@link Subscriber} as sorted entry batches,
+ * followed by folder info updates if crawling is enabled.
+ * Signals are delivered one at a time and only as requested via {@link Subscription#request(long)}.
+ * Folder crawls are only started while there is outstanding demand.
+ * Directories above the paging threshold are published as a single {@link EntryPager}
+ * instead, which creates entries on demand and is not crawled.
+ * Timings of every listing are reported as {@link ListingMetrics} and
+ * the hot paths are marked as trace sections.
+ *
+ * @author Philipp Kutsch
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class DirectoryLister
+{
+	//Signal telling the subscriber to drop all delivered entries
+	private static final Object RESET_SIGNAL = new Object();
+
+	//Entries per page and pages kept in memory by paged listings
+	private static final int PAGE_SIZE = 200;
+	private static final int MAX_PAGES = 5;
+
+	//Number of detected MIME types kept in memory
+	private static final int MIME_CACHE_SIZE = 4096;
+	//Stored for files whose type could not be detected, null marks files not read yet
+	private static final String UNKNOWN_MIME_TYPE = "";
+
+	private final boolean showHidden;
+	private final boolean showEmptyFolders;
+	private final boolean crawlFolderInfo;
+	private final int largestFileCount;
+	private final String[] fileEndingFilter;
+	private final String[] mimeTypeFilter;
+	private final MimeSniffer mimeSniffer;
+	private final RangeFilter rangeFilter;
+	private final int batchSize;
+	private final int pagingThreshold;
+	private final File snapshotDirectory;
+	private final ListingCache listingCache;
+	private final StorageBackend storageBackend;
+	private final Executor listingExecutor;
+	private final Executor crawlingExecutor;
+
+	//Previous snapshot lookups of all listings
+	private final AtomicLong storedSnapshotHits = new AtomicLong();
+	private final AtomicLong storedSnapshotRequests = new AtomicLong();
+
+	private DirectoryLister(@NonNull Builder builder)
+	{
+		this.showHidden = builder.showHidden;
+		this.showEmptyFolders = builder.showEmptyFolders;
+		this.crawlFolderInfo = builder.crawlFolderInfo;
+		this.largestFileCount = builder.largestFileCount;
+		this.fileEndingFilter = builder.fileEndingFilter;
+		this.batchSize = builder.batchSize;
+		this.pagingThreshold = builder.pagingThreshold;
+		this.snapshotDirectory = builder.snapshotDirectory;
+		this.listingCache = builder.listingCache;
+		this.storageBackend = builder.storageBackend != null ? builder.storageBackend : new FileStorageBackend();
+		this.mimeTypeFilter = builder.mimeTypeFilter;
+		this.mimeSniffer = mimeTypeFilter != null ? new MimeSniffer(storageBackend, MIME_CACHE_SIZE) : null;
+		RangeFilter rangeFilter = new RangeFilter(builder.minSize, builder.maxSize,
+				builder.minLastModified, builder.maxLastModified);
+		this.rangeFilter = rangeFilter.isRestricted() ? rangeFilter : null;
+
+		if(builder.executor != null)
+		{
+			this.listingExecutor = builder.executor;
+			this.crawlingExecutor = builder.executor;
+		}
+		else
+		{
+			this.listingExecutor = PickerExecutors.get(PickerExecutors.Pool.Listing);
+			this.crawlingExecutor = PickerExecutors.get(PickerExecutors.Pool.Crawling);
+		}
+	}
+
+	/**
+	 * Asynchronously lists all child files and folders of the directory.
+	 * Nothing happens until the subscriber requests signals.
+	 *
+	 * @param directory Directory
+	 * @param subscriber Subscriber
+	 * @return Subscription, also passed to {@link Subscriber#onSubscribe(Subscription)}
+	 */
+	@NonNull
+	public Subscription list(@NonNull File directory, @NonNull Subscriber subscriber)
+	{
+		ListingSubscription subscription = new ListingSubscription(directory, subscriber);
+		subscriber.onSubscribe(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Filter and sort all child files and folders of the directory.
+	 * Folders in lexicographic order are followed by files in lexicographic order.
+	 *
+	 * @param directory Directory
+	 * @return Sorted entries without information text
+	 * @throws IOException If the directory can not be read
+	 */
+	@NonNull
+	@WorkerThread
+	List<FileDirectoryPickerDialog.Entry> listEntries(@NonNull File directory) throws IOException
+	{
+		return toEntries(ListingSnapshot.scan(storageBackend, directory, null));
+	}
+
+	/**
+	 * @return Storage listed by this lister
+	 */
+	@NonNull
+	public StorageBackend getStorageBackend()
+	{
+		return storageBackend;
+	}
+
+	/**
+	 * Lists the directory into the listing cache without publishing entries,
+	 * so a later listing of the directory is shown immediately.
+	 * Does nothing if no listing cache is configured.
+	 *
+	 * @param directory Directory
+	 */
+	@WorkerThread
+	void prefetch(@NonNull File directory)
+	{
+		if(listingCache == null)return;
+
+		try
+		{
+			scanAndStore(directory, getStoredSnapshot(directory, null), null);
+		}
+		catch(IOException e)
+		{
+			//Directory is listed again once it is shown
+		}
+	}
+
+	/**
+	 * Returns the snapshot from the listing cache or the snapshot directory.
+	 *
+	 * @param directory Directory
+	 * @param listingMetrics Receives the snapshot source and counts the lookup, may be null
+	 * @return Previous snapshot or null
+	 */
+	@Nullable
+	@WorkerThread
+	private ListingSnapshot getStoredSnapshot(@NonNull File directory, @Nullable ListingMetrics listingMetrics)
+	{
+		ListingSnapshot snapshot = null;
+		ListingMetrics.SnapshotSource snapshotSource = ListingMetrics.SnapshotSource.Memory;
+		if(listingCache != null || snapshotDirectory != null)
+		{
+			//Snapshots taken before children were added, removed or renamed are not published
+			StorageBackend.Attributes attributes = storageBackend.stat(directory);
+			long directoryLastModified = attributes != null ? attributes.getLastModified() : 0;
+
+			snapshot = listingCache != null ? listingCache.get(directory) : null;
+			if(snapshot != null && snapshot.getDirectoryLastModified() != directoryLastModified)snapshot = null;
+			if(snapshot == null && snapshotDirectory != null)
+			{
+				snapshot = ListingSnapshot.read(ListingSnapshot.getSnapshotFile(snapshotDirectory, directory),
+						directory, directoryLastModified);
+				snapshotSource = ListingMetrics.SnapshotSource.Disk;
+			}
+		}
+
+		if(listingMetrics != null)
+		{
+			storedSnapshotRequests.incrementAndGet();
+			if(snapshot != null)
+			{
+				storedSnapshotHits.incrementAndGet();
+				listingMetrics.setSnapshotSource(snapshotSource);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Scans the directory and updates the listing cache and the snapshot directory.
+	 *
+	 * @param directory Directory
+	 * @param storedSnapshot Previous snapshot, the stored file is only replaced if the content changed
+	 * @param listingMetrics Receives list and sort times, may be null
+	 * @return Current snapshot
+	 * @throws IOException If the directory can not be read
+	 */
+	@NonNull
+	@WorkerThread
+	private ListingSnapshot scanAndStore(@NonNull File directory, @Nullable ListingSnapshot storedSnapshot,
+	                                     @Nullable ListingMetrics listingMetrics) throws IOException
+	{
+		ListingSnapshot snapshot = ListingSnapshot.scan(storageBackend, directory, listingMetrics);
+		if(listingCache != null)listingCache.put(snapshot);
+
+		if(snapshotDirectory != null && !snapshot.hasSameContent(storedSnapshot))
+		{
+			try
+			{
+				snapshot.write(ListingSnapshot.getSnapshotFile(snapshotDirectory, directory));
+			}
+			catch(IOException e)
+			{
+				//Listing still works without a stored snapshot
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns if the path is an existing directory of the listed storage.
+	 *
+	 * @param file Path
+	 * @return Path can be listed
+	 */
+	boolean isDirectory(@NonNull File file)
+	{
+		StorageBackend.Attributes attributes = storageBackend.stat(file);
+		return attributes != null && attributes.isDirectory();
+	}
+
+	/**
+	 * Creates the filtered entries of an attribute snapshot.
+	 *
+	 * @param snapshot Attribute snapshot
+	 * @return Sorted entries without information text
+	 */
+	@NonNull
+	List<FileDirectoryPickerDialog.Entry> toEntries(@NonNull ListingSnapshot snapshot)
+	{
+		int[] order = filter(snapshot, sniffMimeTypes(snapshot));
+		List<FileDirectoryPickerDialog.Entry> entries = new ArrayList<>(order.length);
+		for(int index : order)
+		{
+			entries.add(createEntry(snapshot, index));
+		}
+		return entries;
+	}
+
+	/**
+	 * Applies the filters to an attribute snapshot without creating entries.
+	 * Snapshots are sorted by name, so only folders and files need to be separated.
+	 *
+	 * @param snapshot Attribute snapshot
+	 * @param mimeTypes Detected MIME types, see {@link #sniffMimeTypes(ListingSnapshot)}
+	 * @return Snapshot indices in display order
+	 */
+	@NonNull
+	int[] filter(@NonNull ListingSnapshot snapshot, @Nullable String[] mimeTypes)
+	{
+		int[] order = new int[snapshot.size()];
+		int folderCount = 0;
+
+		//Folders are collected from the front, files from the back
+		int fileStart = order.length;
+		for(int i = 0; i < snapshot.size(); i++)
+		{
+			//Skip hidden files and folders
+			if(!showHidden && snapshot.hasFlag(i, ListingSnapshot.FLAG_HIDDEN))continue;
+
+			if(snapshot.hasFlag(i, ListingSnapshot.FLAG_DIRECTORY))
+			{
+				//Skip empty directories
+				if(!showEmptyFolders && snapshot.hasFlag(i, ListingSnapshot.FLAG_EMPTY))continue;
+				order[folderCount++] = i;
+			}
+			else if(snapshot.hasFlag(i, ListingSnapshot.FLAG_FILE))
+			{
+				//Filter out unwanted files
+				if(!matchesFile(snapshot, i, mimeTypes))continue;
+				order[--fileStart] = i;
+			}
+		}
+
+		//Files were collected in reverse order
+		int fileCount = order.length - fileStart;
+		int[] filtered = new int[folderCount + fileCount];
+		System.arraycopy(order, 0, filtered, 0, folderCount);
+		for(int i = 0; i < fileCount; i++)
+		{
+			filtered[folderCount + i] = order[order.length - 1 - i];
+		}
+		return filtered;
+	}
+
+	/**
+	 * Creates the entry of a single snapshot child.
+	 *
+	 * @param snapshot Attribute snapshot
+	 * @param index Child index
+	 * @return Entry without information text
+	 */
+	@NonNull
+	static FileDirectoryPickerDialog.Entry createEntry(@NonNull ListingSnapshot snapshot, int index)
+	{
+		String name = snapshot.getName(index);
+		FileDirectoryPickerDialog.Entry entry = new FileDirectoryPickerDialog.Entry();
+		entry.setName(name);
+		entry.setFile(new File(snapshot.getDirectory(), name));
+
+		if(snapshot.hasFlag(index, ListingSnapshot.FLAG_DIRECTORY))
+		{
+			entry.setEntryType(FileDirectoryPickerDialog.Entry.EntryType.Folder);
+			entry.setEmpty(snapshot.hasFlag(index, ListingSnapshot.FLAG_EMPTY));
+		}
+		else
+		{
+			entry.setEntryType(FileDirectoryPickerDialog.Entry.EntryType.File);
+			entry.setSize(snapshot.getSize(index));
+			entry.setLastModified(snapshot.getLastModified(index));
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns if the file is inside the size and date range and passes the file ending or the MIME type filter.
+	 * MIME types are only looked up, they were detected before filtering.
+	 */
+	private boolean matchesFile(@NonNull ListingSnapshot snapshot, int index, @Nullable String[] mimeTypes)
+	{
+		//Ranges are checked first, they only need the snapshot attributes
+		if(rangeFilter != null && !rangeFilter.matches(snapshot.getSize(index), snapshot.getLastModified(index)))return false;
+		if(fileEndingFilter == null && mimeTypeFilter == null)return true;
+		if(fileEndingFilter != null && matchesFileEnding(snapshot.getName(index)))return true;
+		if(mimeTypeFilter == null)return false;
+
+		String mimeType = mimeTypes != null ? mimeTypes[index] : null;
+		return mimeType != null && !mimeType.equals(UNKNOWN_MIME_TYPE) && MimeSniffer.matches(mimeType, mimeTypeFilter);
+	}
+
+	private boolean matchesFileEnding(@NonNull String name)
+	{
+		for(String fileEnding : fileEndingFilter)
+		{
+			if(name.endsWith("." + fileEnding))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Detects the MIME types of all files of the snapshot which are filtered by content.
+	 * Called before the snapshot is filtered, so filtering never reads file content.
+	 * Types are kept with the snapshot, files of cached snapshots are not read again.
+	 *
+	 * @param snapshot Attribute snapshot
+	 * @return MIME types by child index, null if no file is filtered by content
+	 */
+	@Nullable
+	@WorkerThread
+	private String[] sniffMimeTypes(@NonNull ListingSnapshot snapshot)
+	{
+		if(mimeSniffer == null)return null;
+
+		String[] mimeTypes = snapshot.getMimeTypes();
+		boolean copied = false;
+		TraceCompat.beginSection("FileDirectoryPicker:sniff");
+		try
+		{
+			for(int i = 0; i < snapshot.size(); i++)
+			{
+				if(Thread.currentThread().isInterrupted())break;
+				if(mimeTypes != null && mimeTypes[i] != null)continue;
+				if(!snapshot.hasFlag(i, ListingSnapshot.FLAG_FILE))continue;
+				if(!showHidden && snapshot.hasFlag(i, ListingSnapshot.FLAG_HIDDEN))continue;
+				if(fileEndingFilter != null && matchesFileEnding(snapshot.getName(i)))continue;
+				if(rangeFilter != null && !rangeFilter.matches(snapshot.getSize(i), snapshot.getLastModified(i)))continue;
+
+				//Published types are shared with other listings of the snapshot, missing ones are added to a copy
+				if(!copied)
+				{
+					mimeTypes = mimeTypes != null ? mimeTypes.clone() : new String[snapshot.size()];
+					copied = true;
+				}
+				String mimeType = mimeSniffer.getMimeType(new File(snapshot.getDirectory(), snapshot.getName(i)),
+						snapshot.getSize(i), snapshot.getLastModified(i));
+				mimeTypes[i] = mimeType != null ? mimeType : UNKNOWN_MIME_TYPE;
+			}
+		}
+		finally
+		{
+			TraceCompat.endSection();
+		}
+
+		if(copied)snapshot.setMimeTypes(mimeTypes);
+		return mimeTypes;
+	}
+
+	/**
+	 * Receives listing results.
+	 * Methods are never called concurrently.
+	 */
+	public interface Subscriber
+	{
+		void onSubscribe(@NonNull Subscription subscription);
+
+		/**
+		 * Sorted batch of entries. Batches are delivered in display order.
+		 */
+		void onEntries(@NonNull List<FileDirectoryPickerDialog.Entry> entries);
+
+		/**
+		 * Folder size and file count of a previously delivered folder entry.
+		 */
+		void onFolderInfo(@NonNull FileDirectoryPickerDialog.Entry entry, @NonNull FolderInfo folderInfo);
+
+		/**
+		 * Entries delivered so far were read from an outdated snapshot and must be dropped.
+		 * The current entries follow as new batches.
+		 */
+		default void onReset() { }
+
+		/**
+		 * All entries of a directory above the paging threshold.
+		 * Entries are created on access and may be recreated later, so state must be kept
+		 * outside of the entries. Not followed by folder info updates.
+		 * Copies all entries into a single batch by default.
+		 */
+		default void onPagedEntries(@NonNull EntryPager pager)
+		{
+			onEntries(new ArrayList<>(pager));
+		}
+
+		/**
+		 * Timings and counters of the completed listing. Called right before {@link #onComplete()}.
+		 */
+		default void onMetrics(@NonNull ListingMetrics listingMetrics) { }
+
+		void onError(@NonNull Throwable throwable);
+		void onComplete();
+	}
+
+	/**
+	 * Link between a listing and its subscriber.
+	 */
+	public interface Subscription
+	{
+		/**
+		 * Requests up to n further entry batches or folder info updates.
+		 * Use Long.MAX_VALUE to receive all signals without flow control.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops listing and crawling. No further signals are delivered.
+		 */
+		void cancel();
+	}
+
+	/**
+	 * Subscription implementation.
+	 * Signals are queued and drained serially, bounded by the requested amount.
+	 */
+	private final class ListingSubscription implements Subscription
+	{
+		private final File directory;
+		private final Subscriber subscriber;
+		private final TaskGroup crawlingTasks = new TaskGroup(crawlingExecutor);
+		private final ListingMetrics listingMetrics;
+
+		//Guarded by this
+		private final Queue<Object> signals = new ArrayDeque<>();
+		private final Queue<FileDirectoryPickerDialog.Entry> pendingCrawls = new ArrayDeque<>();
+		private List<FileDirectoryPickerDialog.Entry> publishedEntries;
+		private long requested;
+		private int runningCrawls;
+		private boolean started;
+		private long listingStart;
+		private boolean listed;
+		private boolean cancelled;
+		private boolean terminated;
+		private Throwable error;
+		private boolean draining;
+		private boolean missed;
+
+		ListingSubscription(@NonNull File directory, @NonNull Subscriber subscriber)
+		{
+			this.directory = directory;
+			this.subscriber = subscriber;
+			this.listingMetrics = new ListingMetrics(directory);
+		}
+
+		@Override
+		public void request(long n)
+		{
+			if(n <= 0)
+			{
+				//Delivered by the drain loop, so it never overlaps with other signals
+				synchronized(this)
+				{
+					if(cancelled || terminated)return;
+					if(error == null)error = new IllegalArgumentException("Requested amount must be positive");
+					signals.clear();
+					pendingCrawls.clear();
+				}
+				crawlingTasks.cancelAll();
+				drain();
+				return;
+			}
+
+			boolean start;
+			synchronized(this)
+			{
+				if(cancelled)return;
+				requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+				start = !started;
+				started = true;
+				if(start)listingStart = System.nanoTime();
+			}
+
+			if(start)listingExecutor.execute(this::runListing);
+			drain();
+		}
+
+		@Override
+		public void cancel()
+		{
+			synchronized(this)
+			{
+				cancelled = true;
+				signals.clear();
+				pendingCrawls.clear();
+			}
+			crawlingTasks.cancelAll();
+		}
+
+		@WorkerThread
+		private void runListing()
+		{
+			synchronized(this)
+			{
+				if(cancelled)return;
+			}
+
+			try
+			{
+				//Publish the cached or stored snapshot first and revalidate it afterwards
+				ListingSnapshot storedSnapshot = getStoredSnapshot(directory, listingMetrics);
+				if(storedSnapshot != null)
+				{
+					publishSnapshot(storedSnapshot, sniffMimeTypes(storedSnapshot), false);
+					drain();
+				}
+
+				ListingSnapshot snapshot = scanAndStore(directory, storedSnapshot, listingMetrics);
+				if(!snapshot.hasSameContent(storedSnapshot))
+				{
+					//Unchanged files keep their type, only new or modified files are read
+					snapshot.inheritMimeTypes(storedSnapshot);
+					publishSnapshot(snapshot, sniffMimeTypes(snapshot), storedSnapshot != null);
+				}
+
+				synchronized(this)
+				{
+					//Paged listings are too large to be crawled
+					if(crawlFolderInfo && publishedEntries != null)
+					{
+						for(FileDirectoryPickerDialog.Entry entry : publishedEntries)
+						{
+							if(entry.getEntryType() == FileDirectoryPickerDialog.Entry.EntryType.Folder)
+								pendingCrawls.add(entry);
+						}
+					}
+					publishedEntries = null;
+					listed = true;
+				}
+			}
+			catch(IOException e)
+			{
+				synchronized(this)
+				{
+					if(error == null)error = e;
+					listed = true;
+				}
+			}
+			drain();
+		}
+
+		/**
+		 * Queues the entries of the snapshot as batches or as a single pager
+		 * if the number of entries exceeds the paging threshold.
+		 *
+		 * @param snapshot Attribute snapshot
+		 * @param mimeTypes Detected MIME types of the snapshot
+		 * @param reset Replace previously published entries
+		 */
+		@WorkerThread
+		private void publishSnapshot(@NonNull ListingSnapshot snapshot, @Nullable String[] mimeTypes, boolean reset)
+		{
+			//Entries are created without holding the lock, so requests and cancels are not blocked
+			//Filter time includes the creation of entries
+			long filterStart = System.nanoTime();
+			TraceCompat.beginSection("FileDirectoryPicker:filter");
+			int[] order = filter(snapshot, mimeTypes);
+			List<FileDirectoryPickerDialog.Entry> entries = null;
+			List<Object> batches = new ArrayList<>();
+			if(pagingThreshold <= 0 || order.length <= pagingThreshold)
+			{
+				entries = new ArrayList<>(order.length);
+				for(int index : order)
+				{
+					entries.add(createEntry(snapshot, index));
+				}
+				for(int i = 0; i < entries.size(); i += batchSize)
+				{
+					batches.add(Collections.unmodifiableList(
+							new ArrayList<>(entries.subList(i, Math.min(i + batchSize, entries.size())))));
+				}
+			}
+			else
+			{
+				batches.add(new EntryPager(snapshot, order, PAGE_SIZE, MAX_PAGES));
+			}
+			TraceCompat.endSection();
+			listingMetrics.addFilterTime(System.nanoTime() - filterStart);
+			listingMetrics.setEntryCount(order.length);
+
+			synchronized(this)
+			{
+				if(cancelled)return;
+				if(reset)signals.add(RESET_SIGNAL);
+				signals.addAll(batches);
+				//Paged listings are not crawled
+				publishedEntries = entries;
+			}
+		}
+
+		@WorkerThread
+		private void runCrawl(@NonNull FileDirectoryPickerDialog.Entry entry)
+		{
+			long crawlStart = System.nanoTime();
+			TraceCompat.beginSection("FileDirectoryPicker:crawl");
+			FolderInfo folderInfo;
+			try
+			{
+				folderInfo = FolderCrawler.getFolderInfo(storageBackend, entry.getFile(), largestFileCount);
+			}
+			finally
+			{
+				TraceCompat.endSection();
+			}
+			listingMetrics.addCrawl(System.nanoTime() - crawlStart);
+
+			boolean interrupted = Thread.currentThread().isInterrupted();
+			synchronized(this)
+			{
+				runningCrawls--;
+				if(!interrupted && !cancelled)
+					signals.add(new FolderInfoSignal(entry, folderInfo));
+			}
+			drain();
+		}
+
+		/**
+		 * Starts crawls while signals are requested but not yet queued or in flight.
+		 * Must be called while holding the lock.
+		 */
+		private void startCrawls()
+		{
+			while(!pendingCrawls.isEmpty() && requested - signals.size() - runningCrawls > 0)
+			{
+				//Crawls waiting for demand and crawls queued or running on the executor
+				listingMetrics.sampleCrawlQueueDepth(pendingCrawls.size() + crawlingTasks.getPendingCount());
+
+				FileDirectoryPickerDialog.Entry entry = pendingCrawls.poll();
+				runningCrawls++;
+				crawlingTasks.execute(() -> runCrawl(entry));
+			}
+		}
+
+		private void drain()
+		{
+			synchronized(this)
+			{
+				if(draining)
+				{
+					missed = true;
+					return;
+				}
+				draining = true;
+			}
+
+			while(true)
+			{
+				Object signal = null;
+				boolean complete = false;
+				Throwable failure = null;
+
+				synchronized(this)
+				{
+					if(cancelled || terminated)
+					{
+						draining = false;
+						return;
+					}
+
+					if(error != null)
+					{
+						failure = error;
+						terminated = true;
+					}
+					else if(requested > 0 && !signals.isEmpty())
+					{
+						signal = signals.poll();
+						if(requested != Long.MAX_VALUE)requested--;
+					}
+					else if(listed && signals.isEmpty() && pendingCrawls.isEmpty() && runningCrawls == 0)
+					{
+						complete = true;
+						terminated = true;
+						listingMetrics.setCompleteTime(System.nanoTime() - listingStart);
+					}
+					else
+					{
+						startCrawls();
+						if(!missed)
+						{
+							draining = false;
+							return;
+						}
+						missed = false;
+						continue;
+					}
+				}
+
+				if(failure != null)
+				{
+					subscriber.onError(failure);
+				}
+				else if(complete)
+				{
+					listingMetrics.setListingCacheStatistics(storedSnapshotHits.get(), storedSnapshotRequests.get());
+					subscriber.onMetrics(listingMetrics);
+					subscriber.onComplete();
+				}
+				else if(signal == RESET_SIGNAL)
+				{
+					subscriber.onReset();
+				}
+				else if(signal instanceof EntryPager)
+				{
+					subscriber.onPagedEntries((EntryPager) signal);
+				}
+				else if(signal instanceof FolderInfoSignal)
+				{
+					FolderInfoSignal folderInfoSignal = (FolderInfoSignal) signal;
+					subscriber.onFolderInfo(folderInfoSignal.entry, folderInfoSignal.folderInfo);
+				}
+				else
+				{
+					@SuppressWarnings("unchecked")
+					List<FileDirectoryPickerDialog.Entry> entries = (List<FileDirectoryPickerDialog.Entry>) signal;
+					subscriber.onEntries(entries);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queued folder info update.
+	 */
+	private static class FolderInfoSignal
+	{
+		private final FileDirectoryPickerDialog.Entry entry;
+		private final FolderInfo folderInfo;
+
+		FolderInfoSignal(@NonNull FileDirectoryPickerDialog.Entry entry, @NonNull FolderInfo folderInfo)
+		{
+			this.entry = entry;
+			this.folderInfo = folderInfo;
+		}
+	}
+
+	/**
+	 * DirectoryLister builder class.
+	 */
+	@SuppressWarnings("unused")
+	public static class Builder
+	{
+		//Default values
+		private boolean showHidden = false;
+		private boolean showEmptyFolders = false;
+		private boolean crawlFolderInfo = false;
+		private int largestFileCount = 0;
+		private String[] fileEndingFilter;
+		private String[] mimeTypeFilter;
+		private long minSize = 0;
+		private long maxSize = Long.MAX_VALUE;
+		private long minLastModified = Long.MIN_VALUE;
+		private long maxLastModified = Long.MAX_VALUE;
+		private int batchSize = 100;
+		private int pagingThreshold = 0;
+		private File snapshotDirectory;
+		private ListingCache listingCache;
+		private StorageBackend storageBackend;
+		private Executor executor;
+
+		public Builder(){}
+
+		public Builder showHidden(boolean show)
+		{
+			this.showHidden = show;
+			return this;
+		}
+
+		public Builder showEmptyFolders(boolean show)
+		{
+			this.showEmptyFolders = show;
+			return this;
+		}
+
+		public Builder crawlFolderInfo(boolean crawl)
+		{
+			this.crawlFolderInfo = crawl;
+			return this;
+		}
+
+		/**
+		 * Collects the given number of largest files and the size per file extension
+		 * while crawling folder infos. 0 disables the analysis.
+		 */
+		public Builder analyzeFolders(int largestFileCount)
+		{
+			if(largestFileCount < 0)throw new IllegalArgumentException("Largest file count must not be negative");
+			this.largestFileCount = largestFileCount;
+			return this;
+		}
+
+		public Builder filterFileEndings(@NonNull String... fileEndingFilter)
+		{
+			this.fileEndingFilter = fileEndingFilter;
+			return this;
+		}
+
+		/**
+		 * Shows only files whose content matches one of the MIME types, e.g. "image/jpeg" or "video/*".
+		 * Types are detected from the first bytes of each file, so misnamed and extensionless files
+		 * are filtered correctly. Files matching the file ending filter are shown without being read.
+		 */
+		public Builder filterMimeTypes(@NonNull String... mimeTypeFilter)
+		{
+			this.mimeTypeFilter = mimeTypeFilter;
+			return this;
+		}
+
+		/**
+		 * Shows only files with a size between both values in bytes, inclusive.
+		 * Folders are not filtered.
+		 */
+		public Builder filterSize(long minSize, long maxSize)
+		{
+			if(minSize < 0 || minSize > maxSize)throw new IllegalArgumentException("Invalid size range");
+			this.minSize = minSize;
+			this.maxSize = maxSize;
+			return this;
+		}
+
+		/**
+		 * Shows only files modified between both times in milliseconds, inclusive.
+		 * Folders are not filtered.
+		 */
+		public Builder filterLastModified(long minLastModified, long maxLastModified)
+		{
+			if(minLastModified > maxLastModified)throw new IllegalArgumentException("Invalid date range");
+			this.minLastModified = minLastModified;
+			this.maxLastModified = maxLastModified;
+			return this;
+		}
+
+		public Builder batchSize(int batchSize)
+		{
+			if(batchSize <= 0)throw new IllegalArgumentException("Batch size must be positive");
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		/**
+		 * Directories with more entries are published as {@link EntryPager},
+		 * see {@link Subscriber#onPagedEntries(EntryPager)}. 0 disables paging.
+		 */
+		public Builder pagingThreshold(int pagingThreshold)
+		{
+			if(pagingThreshold < 0)throw new IllegalArgumentException("Paging threshold must not be negative");
+			this.pagingThreshold = pagingThreshold;
+			return this;
+		}
+
+		/**
+		 * Stores listing snapshots inside the directory.
+		 * Previously listed folders are published from their snapshot
+		 * and revalidated in the background.
+		 */
+		public Builder snapshotDirectory(@NonNull File snapshotDirectory)
+		{
+			this.snapshotDirectory = snapshotDirectory;
+			return this;
+		}
+
+		/**
+		 * Keeps listed snapshots in memory, see {@link #prefetch(File)}.
+		 */
+		Builder listingCache(@NonNull ListingCache listingCache)
+		{
+			this.listingCache = listingCache;
+			return this;
+		}
+
+		/**
+		 * Storage to list and crawl. Defaults to the local file system.
+		 */
+		public Builder storageBackend(@NonNull StorageBackend storageBackend)
+		{
+			this.storageBackend = storageBackend;
+			return this;
+		}
+
+		public Builder withExecutor(@NonNull Executor executor)
+		{
+			this.executor = executor;
+			return this;
+		}
+
+		public DirectoryLister build()
+		{
+			return new DirectoryLister(this);
+		}
+	}
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Storage Access Framework document tree storage.
+ *
+ * Every directory is listed with a single ContentResolver query which
+ * projects only the required columns, instead of one DocumentFile call per child.
+ * Documents are exposed as virtual paths below a virtual root directory,
+ * so the tree can be shown by the same entry pipeline as the file system.
+ * The document id and attributes of every listed path are remembered to navigate and
+ * to resolve selected paths back to document uris. Paths which were not listed yet,
+ * e.g. selections restored after process death, are resolved by listing their ancestors.
+ *
+ * Display names are not unique and may contain separators, so separators are replaced
+ * and documents sharing a name get a suffix derived from their document id.
+ * Every virtual path therefore maps to exactly one document.
+ *
+ * Emptiness of a folder is answered from its children if it was listed already,
+ * otherwise by a query which projects only the document id and stops at the first child.
+ * Folders which can not be queried are reported as empty, like unreadable file system folders.
+ *
+ * @author Philipp Kutsch
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public final class DocumentTreeBackend implements StorageBackend
+{
+	private static final String[] ID_PROJECTION = new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID};
+	private static final String[] PROJECTION = new String[]
+			{
+					DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+					DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+					DocumentsContract.Document.COLUMN_SIZE,
+					DocumentsContract.Document.COLUMN_MIME_TYPE,
+					DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+					DocumentsContract.Document.COLUMN_FLAGS
+			};
+
+	//DocumentsContract.Document.FLAG_VIRTUAL_DOCUMENT, added in API 24.
+	//Virtual documents have no byte stream and can not be picked.
+	private static final int FLAG_VIRTUAL_DOCUMENT = 1 << 9;
+
+	private final ContentResolver contentResolver;
+	private final Uri treeUri;
+	private final File rootDirectory;
+
+	//Document id -> document of the root and all listed children
+	private final Map<String, Document> documents = new ConcurrentHashMap<>();
+	//Virtual path -> document id, sorted so all paths below a directory form one range
+	private final ConcurrentSkipListMap<String, String> documentIds = new ConcurrentSkipListMap<>();
+	//Virtual paths of listed directories, their children are known
+	private final ConcurrentSkipListSet<String> listedDirectories = new ConcurrentSkipListSet<>();
+
+	/**
+	 * @param contentResolver Content resolver
+	 * @param treeUri Document tree uri with persisted read permission
+	 */
+	public DocumentTreeBackend(@NonNull ContentResolver contentResolver, @NonNull Uri treeUri)
+	{
+		this.contentResolver = contentResolver;
+		this.treeUri = treeUri;
+
+		String rootDocumentId = DocumentsContract.getTreeDocumentId(treeUri);
+		this.rootDirectory = new File(File.separator + rootDocumentId.replace(File.separatorChar, ':'));
+		documents.put(rootDocumentId, new Document(rootDocumentId, Attributes.directory(rootDirectory.getName(), false, 0)));
+		documentIds.put(rootDirectory.getAbsolutePath(), rootDocumentId);
+	}
+
+	/**
+	 * @return Virtual root directory of the tree
+	 */
+	@NonNull
+	public File getRootDirectory()
+	{
+		return rootDirectory;
+	}
+
+	@NonNull
+	@Override
+	@WorkerThread
+	public List<Attributes> list(@NonNull File directory) throws IOException
+	{
+		Uri childrenUri = getChildrenUri(directory);
+		List<Child> children = new ArrayList<>();
+		Map<String, Integer> nameCounts = new HashMap<>();
+
+		try(Cursor cursor = contentResolver.query(childrenUri, PROJECTION, null, null, null))
+		{
+			if(cursor == null)
+				throw new IOException("Failed to query document directory: " + directory.getAbsolutePath());
+
+			int idColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_DOCUMENT_ID);
+			int nameColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_DISPLAY_NAME);
+			int sizeColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_SIZE);
+			int mimeColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_MIME_TYPE);
+			int lastModifiedColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+			int flagsColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_FLAGS);
+
+			while(cursor.moveToNext())
+			{
+				String childDocumentId = cursor.getString(idColumn);
+				String displayName = cursor.getString(nameColumn);
+				if(childDocumentId == null || displayName == null || displayName.isEmpty())continue;
+				if((cursor.getInt(flagsColumn) & FLAG_VIRTUAL_DOCUMENT) != 0)continue;
+
+				Child child = new Child();
+				child.documentId = childDocumentId;
+				child.name = displayName.replace(File.separatorChar, ':');
+				child.directory = DocumentsContract.Document.MIME_TYPE_DIR.equals(cursor.getString(mimeColumn));
+				child.size = cursor.isNull(sizeColumn) ? 0 : cursor.getLong(sizeColumn);
+				child.lastModified = cursor.isNull(lastModifiedColumn) ? 0 : cursor.getLong(lastModifiedColumn);
+				children.add(child);
+
+				Integer nameCount = nameCounts.get(child.name);
+				nameCounts.put(child.name, nameCount != null ? nameCount + 1 : 1);
+			}
+		}
+		catch(SecurityException | IllegalArgumentException e)
+		{
+			throw new IOException("Failed to query document directory: " + directory.getAbsolutePath(), e);
+		}
+
+		//Names are only changed if they are shared, the suffix is stable across listings
+		List<Attributes> attributes = new ArrayList<>(children.size());
+		Set<String> names = new HashSet<>();
+		for(Child child : children)
+		{
+			String idHash = Integer.toHexString(child.documentId.hashCode());
+			String name = nameCounts.get(child.name) > 1 ? appendToName(child.name, idHash) : child.name;
+			for(int i = 2; !names.add(name); i++)
+			{
+				name = appendToName(child.name, idHash + "-" + i);
+			}
+
+			boolean hidden = name.startsWith(".");
+			Attributes childAttributes = child.directory
+					? Attributes.directory(name, hidden, child.lastModified)
+					: Attributes.file(name, hidden, child.size, child.lastModified);
+
+			documents.put(child.documentId, new Document(child.documentId, childAttributes));
+			documentIds.put(new File(directory, name).getAbsolutePath(), child.documentId);
+			attributes.add(childAttributes);
+		}
+		listedDirectories.add(directory.getAbsolutePath());
+		return attributes;
+	}
+
+	/**
+	 * Forgets all listed documents below a directory, e.g. once the directory is left.
+	 * The directory itself stays known, forgotten paths are resolved again when needed.
+	 *
+	 * @param directory Virtual directory
+	 */
+	public void release(@NonNull File directory)
+	{
+		//'0' follows the separator, so the range holds exactly the paths below the directory
+		String path = directory.getAbsolutePath();
+		Map<String, String> descendants = documentIds.subMap(path + File.separator, path + '0');
+		for(String documentId : descendants.values())
+		{
+			documents.remove(documentId);
+		}
+		descendants.clear();
+		listedDirectories.subSet(path + File.separator, path + '0').clear();
+	}
+
+	@Nullable
+	@Override
+	public Attributes stat(@NonNull File file)
+	{
+		try
+		{
+			Document document = resolve(file);
+			return document != null ? document.attributes : null;
+		}
+		catch(IOException e)
+		{
+			return null;
+		}
+	}
+
+	@Override
+	@WorkerThread
+	public boolean isEmpty(@NonNull File directory)
+	{
+		//Children of listed directories are known, skipped virtual documents are not counted
+		String path = directory.getAbsolutePath();
+		if(listedDirectories.contains(path))
+			return documentIds.subMap(path + File.separator, path + '0').isEmpty();
+
+		try(Cursor cursor = contentResolver.query(getChildrenUri(directory), ID_PROJECTION, null, null, null))
+		{
+			return cursor == null || !cursor.moveToFirst();
+		}
+		catch(IOException | SecurityException | IllegalArgumentException e)
+		{
+			return true;
+		}
+	}
+
+	@Override
+	public int readHeader(@NonNull File file, @NonNull byte[] buffer) throws IOException
+	{
+		Uri documentUri = getDocumentUri(file);
+		try(InputStream inputStream = contentResolver.openInputStream(documentUri))
+		{
+			if(inputStream == null)throw new IOException("Failed to open document: " + file.getAbsolutePath());
+			return FileUtils.readFully(inputStream, buffer);
+		}
+		catch(SecurityException e)
+		{
+			throw new IOException("Failed to open document: " + file.getAbsolutePath(), e);
+		}
+	}
+
+	@NonNull
+	@Override
+	public Closeable watch(@NonNull File directory, @NonNull WatchListener listener) throws IOException
+	{
+		//Observer without handler, changes are reported on a binder thread
+		ContentObserver contentObserver = new ContentObserver(null)
+		{
+			@Override
+			public void onChange(boolean selfChange)
+			{
+				listener.onChanged(directory);
+			}
+		};
+
+		try
+		{
+			contentResolver.registerContentObserver(getChildrenUri(directory), false, contentObserver);
+		}
+		catch(SecurityException e)
+		{
+			throw new IOException("Failed to watch document directory: " + directory.getAbsolutePath(), e);
+		}
+		return () -> contentResolver.unregisterContentObserver(contentObserver);
+	}
+
+	/**
+	 * Resolves a virtual path to its document uri.
+	 * Paths which were not listed yet are resolved by listing their ancestors.
+	 *
+	 * @param file Virtual path
+	 * @return Document uri
+	 * @throws IOException If no document exists at the path or an ancestor can not be listed
+	 */
+	@NonNull
+	@WorkerThread
+	public Uri getDocumentUri(@NonNull File file) throws IOException
+	{
+		Document document = resolve(file);
+		if(document == null)throw new IOException("Unknown document: " + file.getAbsolutePath());
+		return DocumentsContract.buildDocumentUriUsingTree(treeUri, document.documentId);
+	}
+
+	@NonNull
+	private Uri getChildrenUri(@NonNull File directory) throws IOException
+	{
+		Document document = resolve(directory);
+		if(document == null || !document.attributes.isDirectory())
+			throw new IOException("Unknown document directory: " + directory.getAbsolutePath());
+		return DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, document.documentId);
+	}
+
+	/**
+	 * Inserts a suffix in front of the extension, so file type detection still works.
+	 */
+	@NonNull
+	private static String appendToName(@NonNull String name, @NonNull String suffix)
+	{
+		int extensionStart = name.lastIndexOf('.');
+		if(extensionStart <= 0)return name + " (" + suffix + ")";
+		return name.substring(0, extensionStart) + " (" + suffix + ")" + name.substring(extensionStart);
+	}
+
+	@Nullable
+	private Document getKnownDocument(@NonNull File file)
+	{
+		String documentId = documentIds.get(file.getAbsolutePath());
+		return documentId != null ? documents.get(documentId) : null;
+	}
+
+	/**
+	 * Returns the document of a virtual path.
+	 * Unknown paths are resolved by listing the parent, starting from the deepest known ancestor.
+	 *
+	 * @param file Virtual path
+	 * @return Document or null if no document exists at the path
+	 * @throws IOException If an ancestor can not be listed
+	 */
+	@Nullable
+	@WorkerThread
+	private Document resolve(@NonNull File file) throws IOException
+	{
+		Document document = getKnownDocument(file);
+		if(document != null)return document;
+
+		//The root is always known, paths outside of the tree end at the file system root
+		File parent = file.getParentFile();
+		if(parent == null)return null;
+		Document parentDocument = resolve(parent);
+		if(parentDocument == null || !parentDocument.attributes.isDirectory())return null;
+
+		list(parent);
+		return getKnownDocument(file);
+	}
+
+	/**
+	 * Listed child before its unique name is known.
+	 */
+	private static class Child
+	{
+		private String documentId;
+		private String name;
+		private boolean directory;
+		private long size;
+		private long lastModified;
+	}
+
+	/**
+	 * Document id and attributes of a listed path.
+	 */
+	private static class Document
+	{
+		private final String documentId;
+		private final Attributes attributes;
+
+		Document(@NonNull String documentId, @NonNull Attributes attributes)
+		{
+			this.documentId = documentId;
+			this.attributes = attributes;
+		}
+	}
+}
@@ -18,26 +18,33 @@ package net.monoflop.filedirectorypicker;
 
 import android.content.Context;
 import android.content.res.ColorStateList;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.ImageView;
-import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.core.widget.ImageViewCompat;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-
-import butterknife.BindView;
-import butterknife.ButterKnife;
+import java.util.Map;
 
 /**
  * Entry recyclerView adapter class.
+ * In tree mode folders are expanded inline and the entry list holds the flattened
+ * visible tree, every entry directly followed by its shown descendants.
  *
  * @author Philipp Kutsch
  */
@@ -50,17 +57,70 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 		FoldersOnly //Only folders are shown and selectable
 	}
 
+	//Number of rows beyond the viewport whose thumbnails are loaded ahead
+	private static final int THUMBNAIL_PREFETCH_DISTANCE = 6;
+	//Indentation of every tree level
+	private static final int TREE_INDENT_DP = 24;
+
 	private Context context;
 	private List<FileDirectoryPickerDialog.Entry> entryList;
 	private EntrySelectedCallback entrySelectedCallback;
 	private ViewMode viewMode;
 	private FileDirectoryPickerDialog.CustomTheme customTheme;
+	private ThumbnailLoader thumbnailLoader;
+	private ColorStateList entryImageTint;
+	private boolean gridMode;
+	private boolean treeMode;
+	private int treeIndent;
+
+	//Entry -> adapter position of the first indexedCount rows, extended on appends,
+	//shifted behind inserted or removed subtrees and rebuilt when the list is replaced
+	private final Map<FileDirectoryPickerDialog.Entry, Integer> positions = new IdentityHashMap<>();
+	private int indexedCount;
+	//Tree mode only, expanded folder -> number of shown descendants and shown child -> folder
+	private final Map<FileDirectoryPickerDialog.Entry, Integer> descendantCounts = new IdentityHashMap<>();
+	private final Map<FileDirectoryPickerDialog.Entry, FileDirectoryPickerDialog.Entry> parents = new IdentityHashMap<>();
+
+	//Icons are inflated once, rows only create lightweight drawables from their shared state
+	private Drawable.ConstantState folderIcon;
+	private Drawable.ConstantState fileIcon;
+	private Drawable.ConstantState backIcon;
+
+	private final RecyclerView.OnScrollListener thumbnailPrefetchListener = new RecyclerView.OnScrollListener()
+	{
+		@Override
+		public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy)
+		{
+			if(!(recyclerView.getLayoutManager() instanceof LinearLayoutManager) || dy == 0)return;
+			LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+
+			//Prefetch in scroll direction
+			int visiblePosition = dy > 0 ? layoutManager.findLastVisibleItemPosition()
+					: layoutManager.findFirstVisibleItemPosition();
+			if(visiblePosition == RecyclerView.NO_POSITION)return;
+
+			//Grids prefetch the same number of rows
+			int prefetchDistance = THUMBNAIL_PREFETCH_DISTANCE;
+			if(layoutManager instanceof GridLayoutManager)
+				prefetchDistance *= ((GridLayoutManager) layoutManager).getSpanCount();
+
+			int start = dy > 0 ? visiblePosition + 1 : visiblePosition - prefetchDistance;
+			for(int i = Math.max(start, 0); i < Math.min(start + prefetchDistance, entryList.size()); i++)
+			{
+				FileDirectoryPickerDialog.Entry entry = entryList.get(i);
+				if(ThumbnailLoader.isSupported(entry))thumbnailLoader.prefetch(entry);
+			}
+		}
+	};
 
 	EntryAdapter(@NonNull Context context,
 	             @NonNull List<FileDirectoryPickerDialog.Entry> entryList,
 	             @NonNull EntrySelectedCallback entrySelectedCallback,
 	             @Nullable ViewMode viewMode,
-	             @Nullable FileDirectoryPickerDialog.CustomTheme customTheme)
+	             @Nullable FileDirectoryPickerDialog.CustomTheme customTheme,
+	             @Nullable ThumbnailLoader thumbnailLoader,
+	             boolean gridMode,
+	             boolean treeMode)
 	{
 		this.context = context;
 		this.entryList = entryList;
@@ -70,17 +130,225 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 		if(this.viewMode == null)this.viewMode = ViewMode.Default;
 
 		this.customTheme = customTheme;
+		this.thumbnailLoader = thumbnailLoader;
+		this.gridMode = gridMode;
+		this.treeMode = treeMode;
+		this.treeIndent = (int) (TREE_INDENT_DP * context.getResources().getDisplayMetrics().density);
+
+		//Thumbnails are shown without tint, icons are tinted again on rebind
+		this.entryImageTint = ColorStateList.valueOf(customTheme != null
+				? customTheme.getEntryImage() : ContextCompat.getColor(context, R.color.colorPrimary));
+
+		this.folderIcon = getIconState(R.drawable.ic_folder_black_24dp);
+		this.fileIcon = getIconState(R.drawable.ic_insert_drive_file_black_24dp);
+		this.backIcon = getIconState(R.drawable.ic_arrow_back_black_24dp);
+	}
+
+	@NonNull
+	private Drawable.ConstantState getIconState(@DrawableRes int icon)
+	{
+		Drawable drawable = ContextCompat.getDrawable(context, icon);
+		if(drawable == null || drawable.getConstantState() == null)
+			throw new IllegalStateException("Icon resource can not be shared");
+		return drawable.getConstantState();
+	}
+
+	/**
+	 * Replaces the shown entries. The caller notifies about the changes.
+	 *
+	 * @param entryList Entries
+	 */
+	void setEntryList(@NonNull List<FileDirectoryPickerDialog.Entry> entryList)
+	{
+		this.entryList = entryList;
+		invalidatePositions();
+		descendantCounts.clear();
+		parents.clear();
+	}
+
+	/**
+	 * @param position Adapter position
+	 * @return Entry shown at the position
+	 */
+	@NonNull
+	FileDirectoryPickerDialog.Entry getEntry(int position)
+	{
+		return entryList.get(position);
+	}
+
+	/**
+	 * Returns the position of a shown entry without searching the entry list.
+	 * Entries appended to the end of the list are indexed on the next call,
+	 * other changes must go through this adapter.
+	 *
+	 * @param entry Entry
+	 * @return Position or {@link RecyclerView#NO_POSITION} if the entry is not shown
+	 */
+	int getPosition(@NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		//Only the resident pages of a pager are searched, no entries are created
+		if(entryList instanceof EntryPager)return ((EntryPager) entryList).indexOfCreated(entry);
+
+		if(indexedCount > entryList.size())invalidatePositions();
+		for(; indexedCount < entryList.size(); indexedCount++)
+		{
+			positions.put(entryList.get(indexedCount), indexedCount);
+		}
+
+		Integer position = positions.get(entry);
+		return position != null ? position : RecyclerView.NO_POSITION;
+	}
+
+	/**
+	 * Rebinds the row of an entry, nothing happens if the entry is no longer shown.
+	 *
+	 * @param entry Entry
+	 */
+	void notifyEntryChanged(@NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		int position = getPosition(entry);
+		if(position != RecyclerView.NO_POSITION)notifyItemChanged(position);
+	}
+
+	private void invalidatePositions()
+	{
+		positions.clear();
+		indexedCount = 0;
+	}
+
+	/**
+	 * Stores the positions of rows which moved.
+	 *
+	 * @param start First moved position
+	 * @param end Position after the last moved row
+	 */
+	private void indexPositions(int start, int end)
+	{
+		for(int position = start; position < end; position++)
+		{
+			positions.put(entryList.get(position), position);
+		}
+	}
+
+	/**
+	 * Inserts listed children below an expanded folder, after the already inserted children.
+	 *
+	 * @param folder Expanded folder
+	 * @param children Sorted batch of children
+	 * @return False if the folder is no longer shown or got collapsed
+	 */
+	boolean insertChildren(@NonNull FileDirectoryPickerDialog.Entry folder, @NonNull List<FileDirectoryPickerDialog.Entry> children)
+	{
+		int folderPosition = getPosition(folder);
+		if(folderPosition == RecyclerView.NO_POSITION || !folder.isExpanded())return false;
+
+		for(FileDirectoryPickerDialog.Entry child : children)
+		{
+			child.setDepth(folder.getDepth() + 1);
+		}
+
+		int position = getSubtreeEnd(folder, folderPosition);
+		entryList.addAll(position, children);
+		for(FileDirectoryPickerDialog.Entry child : children)
+		{
+			parents.put(child, folder);
+		}
+		addDescendants(folder, children.size());
+		//Only the indexed rows behind the insertion moved
+		if(indexedCount > position)
+		{
+			indexedCount += children.size();
+			indexPositions(position, indexedCount);
+		}
+		notifyItemRangeInserted(position, children.size());
+		return true;
+	}
+
+	/**
+	 * Removes all shown descendants of a folder, e.g. before outdated children are listed again.
+	 * Only the rows of the subtree are moved, the rest of the list is kept.
+	 *
+	 * @param folder Folder
+	 * @return Removed descendants
+	 */
+	@NonNull
+	List<FileDirectoryPickerDialog.Entry> removeChildren(@NonNull FileDirectoryPickerDialog.Entry folder)
+	{
+		int folderPosition = getPosition(folder);
+		if(folderPosition == RecyclerView.NO_POSITION)return new ArrayList<>();
+
+		int start = folderPosition + 1;
+		int end = getSubtreeEnd(folder, folderPosition);
+		List<FileDirectoryPickerDialog.Entry> subtree = entryList.subList(start, end);
+		List<FileDirectoryPickerDialog.Entry> removed = new ArrayList<>(subtree);
+		subtree.clear();
+		addDescendants(folder, -removed.size());
+		for(FileDirectoryPickerDialog.Entry entry : removed)
+		{
+			parents.remove(entry);
+			descendantCounts.remove(entry);
+			positions.remove(entry);
+		}
+
+		//Only the indexed rows behind the subtree moved
+		if(indexedCount > start)
+		{
+			indexedCount = Math.max(start, indexedCount - removed.size());
+			indexPositions(start, indexedCount);
+		}
+		notifyItemRangeRemoved(start, removed.size());
+		return removed;
+	}
+
+	/**
+	 * Returns the position after the last shown descendant of the folder.
+	 * Descendants are counted, so the subtree is not scanned.
+	 */
+	private int getSubtreeEnd(@NonNull FileDirectoryPickerDialog.Entry folder, int folderPosition)
+	{
+		Integer descendantCount = descendantCounts.get(folder);
+		return folderPosition + 1 + (descendantCount != null ? descendantCount : 0);
+	}
+
+	/**
+	 * Updates the descendant count of the folder and all of its shown ancestors.
+	 *
+	 * @param folder Folder whose children changed
+	 * @param delta Number of inserted rows, negative for removed rows
+	 */
+	private void addDescendants(@NonNull FileDirectoryPickerDialog.Entry folder, int delta)
+	{
+		for(FileDirectoryPickerDialog.Entry ancestor = folder; ancestor != null; ancestor = parents.get(ancestor))
+		{
+			Integer descendantCount = descendantCounts.get(ancestor);
+			int count = (descendantCount != null ? descendantCount : 0) + delta;
+			if(count > 0)descendantCounts.put(ancestor, count);
+			else descendantCounts.remove(ancestor);
+		}
+	}
+
+	@Override
+	public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView)
+	{
+		if(thumbnailLoader != null)recyclerView.addOnScrollListener(thumbnailPrefetchListener);
+	}
+
+	@Override
+	public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView)
+	{
+		recyclerView.removeOnScrollListener(thumbnailPrefetchListener);
 	}
 
 	@Override
 	@NonNull
 	public EntryViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType)
 	{
-		RelativeLayout layout;
-		layout = (RelativeLayout) LayoutInflater.from(parent.getContext())
-				.inflate(R.layout.element_entry, parent, false);
+		View layout = LayoutInflater.from(parent.getContext())
+				.inflate(gridMode ? R.layout.element_entry_grid : R.layout.element_entry, parent, false);
 
-		return new EntryViewHolder(layout);
+		EntryViewHolder holder = new EntryViewHolder(layout);
+		if(treeMode)ImageViewCompat.setImageTintList(holder.entryExpand, entryImageTint);
+		return holder;
 	}
 
 	@Override
@@ -88,10 +356,13 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 	{
 		FileDirectoryPickerDialog.Entry entry = entryList.get(position);
 
+		//Drop the pending thumbnail of the previously bound entry
+		cancelThumbnail(holder);
+		ImageViewCompat.setImageTintList(holder.entryImage, entryImageTint);
+
 		//Apply theme
 		if(customTheme != null)
 		{
-			ImageViewCompat.setImageTintList(holder.entryImage, ColorStateList.valueOf(customTheme.getEntryImage()));
 			holder.entryName.setTextColor(customTheme.getEntryName());
 			holder.entryInfo.setTextColor(customTheme.getEntryInfo());
 		}
@@ -104,7 +375,7 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 		//Setup element based on the current view mode and entry type.
 		if(entry.getEntryType() == FileDirectoryPickerDialog.Entry.EntryType.Folder)
 		{
-			holder.entryImage.setImageDrawable(context.getResources().getDrawable(R.drawable.ic_folder_black_24dp));
+			holder.entryImage.setImageDrawable(folderIcon.newDrawable(context.getResources()));
 			if(viewMode == ViewMode.Default || viewMode == ViewMode.FoldersOnly)
 				holder.entryCheckBox.setVisibility(View.VISIBLE);
 			else
@@ -112,7 +383,8 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 		}
 		else if(entry.getEntryType() == FileDirectoryPickerDialog.Entry.EntryType.File)
 		{
-			holder.entryImage.setImageDrawable(context.getResources().getDrawable(R.drawable.ic_insert_drive_file_black_24dp));
+			holder.entryImage.setImageDrawable(fileIcon.newDrawable(context.getResources()));
+			if(thumbnailLoader != null && ThumbnailLoader.isSupported(entry))bindThumbnail(holder, entry);
 
 			if(viewMode == ViewMode.Default || viewMode == ViewMode.FilesOnly)
 				holder.entryCheckBox.setVisibility(View.VISIBLE);
@@ -121,10 +393,12 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 		}
 		else
 		{
-			holder.entryImage.setImageDrawable(context.getResources().getDrawable(R.drawable.ic_arrow_back_black_24dp));
+			holder.entryImage.setImageDrawable(backIcon.newDrawable(context.getResources()));
 			holder.entryCheckBox.setVisibility(View.GONE);
 		}
 
+		if(treeMode)bindTreeLevel(holder, entry);
+
 		//Set name and info
 		holder.entryName.setText(entry.getName());
 		holder.entryInfo.setText(entry.getInfo());
@@ -144,31 +418,108 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 				entrySelectedCallback.onFolderClicked(entry);
 			}
 		});
+		holder.root.setOnLongClickListener((v) ->
+				entry.getEntryType() == FileDirectoryPickerDialog.Entry.EntryType.Folder
+						&& entrySelectedCallback.onFolderLongClicked(entry));
 
 		holder.entryCheckBox.setOnCheckedChangeListener((buttonView, isChecked) ->
 				entrySelectedCallback.onEntrySelected(entry, isChecked));
 	}
 
+	@Override
+	public void onViewRecycled(@NonNull EntryViewHolder holder)
+	{
+		cancelThumbnail(holder);
+	}
+
 	@Override
 	public int getItemCount()
 	{
 		return entryList.size();
 	}
 
+	/**
+	 * Indents the row by its tree depth and shows the expand toggle of folders.
+	 */
+	private void bindTreeLevel(@NonNull EntryViewHolder holder, @NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		holder.root.setPaddingRelative(holder.paddingStart + entry.getDepth() * treeIndent,
+				holder.root.getPaddingTop(), holder.root.getPaddingEnd(), holder.root.getPaddingBottom());
+
+		if(entry.getEntryType() == FileDirectoryPickerDialog.Entry.EntryType.Folder)
+		{
+			holder.entryExpand.setVisibility(View.VISIBLE);
+			holder.entryExpand.setRotation(entry.isExpanded() ? 90 : 0);
+			holder.entryExpand.setOnClickListener((v) -> entrySelectedCallback.onFolderExpandClicked(entry));
+		}
+		else
+		{
+			//Files keep the space of the toggle, so names of one level stay aligned
+			holder.entryExpand.setVisibility(entry.getEntryType() == FileDirectoryPickerDialog.Entry.EntryType.File
+					? View.INVISIBLE : View.GONE);
+			holder.entryExpand.setOnClickListener(null);
+		}
+	}
+
+	/**
+	 * Shows the cached thumbnail or loads it while the file icon is shown.
+	 */
+	private void bindThumbnail(@NonNull EntryViewHolder holder, @NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		Bitmap thumbnail = thumbnailLoader.getCached(entry);
+		if(thumbnail != null)
+		{
+			showThumbnail(holder, thumbnail);
+			return;
+		}
+
+		holder.thumbnailRequest = thumbnailLoader.load(entry, (loadedThumbnail) ->
+		{
+			holder.thumbnailRequest = null;
+			showThumbnail(holder, loadedThumbnail);
+		});
+	}
+
+	private void showThumbnail(@NonNull EntryViewHolder holder, @NonNull Bitmap thumbnail)
+	{
+		ImageViewCompat.setImageTintList(holder.entryImage, null);
+		holder.entryImage.setImageBitmap(thumbnail);
+	}
+
+	private void cancelThumbnail(@NonNull EntryViewHolder holder)
+	{
+		if(holder.thumbnailRequest != null)
+		{
+			holder.thumbnailRequest.cancel();
+			holder.thumbnailRequest = null;
+		}
+	}
+
 	static class EntryViewHolder extends RecyclerView.ViewHolder
 	{
-		@BindView(R2.id.entryImage) ImageView entryImage;
-		@BindView(R2.id.entryName) TextView entryName;
-		@BindView(R2.id.entryInfo) TextView entryInfo;
-		@BindView(R2.id.entryCheckBox) CheckBox entryCheckBox;
+		//Views are looked up once per holder without reflection,
+		//holders are created in bulk while the list fills the screen.
+		final ImageView entryImage;
+		final TextView entryName;
+		final TextView entryInfo;
+		final CheckBox entryCheckBox;
+		//Only part of the list layout
+		final ImageView entryExpand;
+		final int paddingStart;
 
-		RelativeLayout root;
+		View root;
+		ThumbnailLoader.Request thumbnailRequest;
 
-		private EntryViewHolder(RelativeLayout view)
+		private EntryViewHolder(View view)
 		{
 			super(view);
 			root = view;
-			ButterKnife.bind(this, view);
+			entryImage = view.findViewById(R.id.entryImage);
+			entryName = view.findViewById(R.id.entryName);
+			entryInfo = view.findViewById(R.id.entryInfo);
+			entryCheckBox = view.findViewById(R.id.entryCheckBox);
+			entryExpand = view.findViewById(R.id.entryExpand);
+			paddingStart = view.getPaddingStart();
 		}
 	}
 
@@ -176,5 +527,7 @@ class EntryAdapter extends RecyclerView.Adapter<EntryAdapter.EntryViewHolder>
 	{
 		void onEntrySelected(FileDirectoryPickerDialog.Entry entry, boolean selected);
 		void onFolderClicked(FileDirectoryPickerDialog.Entry entry);
+		void onFolderExpandClicked(FileDirectoryPickerDialog.Entry entry);
+		boolean onFolderLongClicked(FileDirectoryPickerDialog.Entry entry);
 	}
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Read only entry list of a very large directory.
+ *
+ * Entries are created page by page from the attribute snapshot when they are accessed.
+ * Only a window of recently used pages is kept, older pages are dropped and
+ * created again if needed. State which has to survive this, like the selection,
+ * must be kept outside of the entries and restored by an {@link EntryDecorator}.
+ *
+ * Instances are not thread safe and should only be used on the ui thread.
+ *
+ * @author Philipp Kutsch
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class EntryPager extends AbstractList<FileDirectoryPickerDialog.Entry> implements RandomAccess
+{
+	private final ListingSnapshot snapshot;
+	private final int[] order;
+	private final int pageSize;
+	private final Map<Integer, FileDirectoryPickerDialog.Entry[]> pages;
+
+	private FileDirectoryPickerDialog.Entry header;
+	private EntryDecorator entryDecorator;
+
+	/**
+	 * @param snapshot Attribute snapshot
+	 * @param order Snapshot indices in display order
+	 * @param pageSize Number of entries per page
+	 * @param maxPages Number of pages kept in memory
+	 */
+	EntryPager(@NonNull ListingSnapshot snapshot, @NonNull int[] order, int pageSize, int maxPages)
+	{
+		this.snapshot = snapshot;
+		this.order = order;
+		this.pageSize = pageSize;
+		this.pages = new LinkedHashMap<Integer, FileDirectoryPickerDialog.Entry[]>(maxPages + 1, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, FileDirectoryPickerDialog.Entry[]> eldest)
+			{
+				return size() > maxPages;
+			}
+		};
+	}
+
+	/**
+	 * Places a fixed entry in front of the paged entries, e.g. the navigate back entry.
+	 *
+	 * @param header Header entry or null
+	 */
+	void setHeader(@Nullable FileDirectoryPickerDialog.Entry header)
+	{
+		this.header = header;
+	}
+
+	/**
+	 * Sets the decorator called for every created entry.
+	 * Already created pages are dropped.
+	 *
+	 * @param entryDecorator Decorator
+	 */
+	public void setEntryDecorator(@Nullable EntryDecorator entryDecorator)
+	{
+		this.entryDecorator = entryDecorator;
+		pages.clear();
+	}
+
+	@Override
+	public FileDirectoryPickerDialog.Entry get(int index)
+	{
+		if(header != null)
+		{
+			if(index == 0)return header;
+			index--;
+		}
+		if(index < 0 || index >= order.length)throw new IndexOutOfBoundsException("Index: " + index);
+
+		int page = index / pageSize;
+		FileDirectoryPickerDialog.Entry[] entries = pages.get(page);
+		if(entries == null)
+		{
+			entries = createPage(page);
+			pages.put(page, entries);
+		}
+		return entries[index - page * pageSize];
+	}
+
+	@Override
+	public int size()
+	{
+		return order.length + (header != null ? 1 : 0);
+	}
+
+	/**
+	 * @return Number of paged entries, without the header
+	 */
+	public int getEntryCount()
+	{
+		return order.length;
+	}
+
+	/**
+	 * Returns the name of a paged entry without creating its page.
+	 *
+	 * @param index Index of the paged entry, without the header
+	 * @return Name
+	 */
+	@NonNull
+	public String getName(int index)
+	{
+		return snapshot.getName(order[index]);
+	}
+
+	/**
+	 * Returns the type of a paged entry without creating its page.
+	 *
+	 * @param index Index of the paged entry, without the header
+	 * @return Folder or file
+	 */
+	@NonNull
+	public FileDirectoryPickerDialog.Entry.EntryType getEntryType(int index)
+	{
+		return snapshot.hasFlag(order[index], ListingSnapshot.FLAG_DIRECTORY)
+				? FileDirectoryPickerDialog.Entry.EntryType.Folder
+				: FileDirectoryPickerDialog.Entry.EntryType.File;
+	}
+
+	/**
+	 * Returns the position of an entry without creating pages.
+	 * Entries of evicted pages are no longer part of the list.
+	 *
+	 * @param entry Entry
+	 * @return Position or -1 if the entry is not held in memory
+	 */
+	int indexOfCreated(@NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		int offset = 0;
+		if(header != null)
+		{
+			if(header == entry)return 0;
+			offset = 1;
+		}
+
+		for(Map.Entry<Integer, FileDirectoryPickerDialog.Entry[]> page : pages.entrySet())
+		{
+			FileDirectoryPickerDialog.Entry[] entries = page.getValue();
+			for(int i = 0; i < entries.length; i++)
+			{
+				if(entries[i] == entry)return offset + page.getKey() * pageSize + i;
+			}
+		}
+		return -1;
+	}
+
+	@NonNull
+	private FileDirectoryPickerDialog.Entry[] createPage(int page)
+	{
+		int start = page * pageSize;
+		FileDirectoryPickerDialog.Entry[] entries = new FileDirectoryPickerDialog.Entry[Math.min(pageSize, order.length - start)];
+		for(int i = 0; i < entries.length; i++)
+		{
+			entries[i] = DirectoryLister.createEntry(snapshot, order[start + i]);
+			if(entryDecorator != null)entryDecorator.onEntryCreated(entries[i]);
+		}
+		return entries;
+	}
+
+	/**
+	 * Restores state of recreated entries, e.g. information text and selection.
+	 */
+	public interface EntryDecorator
+	{
+		void onEntryCreated(@NonNull FileDirectoryPickerDialog.Entry entry);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Fast scroll thumb for the entry recycler.
+ * Dragging the thumb jumps directly to the section below the finger
+ * and shows the section label next to it. Jumps use the precomputed
+ * {@link SectionIndex}, so rows in between are never measured.
+ *
+ * @author Philipp Kutsch
+ */
+class FastScrollerView extends View
+{
+	//Dimensions in dp
+	private static final int THUMB_WIDTH = 8;
+	private static final int THUMB_HEIGHT = 48;
+	private static final int BUBBLE_SIZE = 56;
+	private static final int LABEL_TEXT_SIZE = 28;
+
+	private final Paint thumbPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final RectF thumbRect = new RectF();
+	private final RectF bubbleRect = new RectF();
+	private final float density;
+
+	private RecyclerView recyclerView;
+	private SectionIndex sectionIndex;
+	private float thumbOffset;
+	private boolean dragging;
+
+	private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener()
+	{
+		@Override
+		public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy)
+		{
+			if(!dragging)updateThumbOffset();
+		}
+	};
+
+	public FastScrollerView(@NonNull Context context)
+	{
+		this(context, null);
+	}
+
+	public FastScrollerView(@NonNull Context context, @Nullable AttributeSet attrs)
+	{
+		super(context, attrs);
+		density = context.getResources().getDisplayMetrics().density;
+		labelPaint.setTextSize(LABEL_TEXT_SIZE * density);
+		labelPaint.setTextAlign(Paint.Align.CENTER);
+		setColors(ContextCompat.getColor(context, R.color.colorPrimary), ContextCompat.getColor(context, R.color.white));
+	}
+
+	/**
+	 * @param accentColor Thumb and bubble color
+	 * @param labelColor Section label color
+	 */
+	void setColors(@ColorInt int accentColor, @ColorInt int labelColor)
+	{
+		thumbPaint.setColor(accentColor);
+		bubblePaint.setColor(accentColor);
+		labelPaint.setColor(labelColor);
+		invalidate();
+	}
+
+	/**
+	 * @param recyclerView Scrolled recycler with a LinearLayoutManager
+	 * @param sectionIndex Sections of the recycler entries
+	 */
+	void attach(@NonNull RecyclerView recyclerView, @NonNull SectionIndex sectionIndex)
+	{
+		this.recyclerView = recyclerView;
+		this.sectionIndex = sectionIndex;
+		recyclerView.addOnScrollListener(scrollListener);
+	}
+
+	void detach()
+	{
+		if(recyclerView != null)recyclerView.removeOnScrollListener(scrollListener);
+		recyclerView = null;
+	}
+
+	/**
+	 * Moves the thumb to the current scroll position, e.g. after entries changed.
+	 */
+	void updateThumbOffset()
+	{
+		if(recyclerView == null)return;
+
+		int range = recyclerView.computeVerticalScrollRange() - recyclerView.computeVerticalScrollExtent();
+		thumbOffset = range > 0 ? (float) recyclerView.computeVerticalScrollOffset() / range : 0;
+		invalidate();
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas)
+	{
+		if(sectionIndex == null || sectionIndex.size() == 0)return;
+
+		float thumbHeight = THUMB_HEIGHT * density;
+		float thumbTop = thumbOffset * (getHeight() - thumbHeight);
+		thumbRect.set(getWidth() - THUMB_WIDTH * density, thumbTop, getWidth(), thumbTop + thumbHeight);
+		canvas.drawRoundRect(thumbRect, THUMB_WIDTH * density / 2, THUMB_WIDTH * density / 2, thumbPaint);
+
+		if(!dragging)return;
+
+		//Section label left of the thumb
+		float bubbleSize = BUBBLE_SIZE * density;
+		float bubbleTop = Math.max(0, Math.min(thumbTop + thumbHeight / 2 - bubbleSize / 2, getHeight() - bubbleSize));
+		bubbleRect.set(thumbRect.left - bubbleSize - 8 * density, bubbleTop, thumbRect.left - 8 * density, bubbleTop + bubbleSize);
+		canvas.drawRoundRect(bubbleRect, bubbleSize / 2, bubbleSize / 2, bubblePaint);
+
+		float labelY = bubbleRect.top + bubbleSize / 2 - (labelPaint.descent() + labelPaint.ascent()) / 2;
+		canvas.drawText(sectionIndex.getLabel(getDraggedSection()), bubbleRect.left + bubbleSize / 2, labelY, labelPaint);
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event)
+	{
+		if(recyclerView == null || sectionIndex == null || sectionIndex.size() == 0)return false;
+
+		switch(event.getActionMasked())
+		{
+			case MotionEvent.ACTION_DOWN:
+				//Only the thumb area starts a drag
+				if(event.getX() < getWidth() - 4 * THUMB_WIDTH * density)return false;
+				dragging = true;
+				setPressed(true);
+				scrollToSection(event.getY());
+				return true;
+
+			case MotionEvent.ACTION_MOVE:
+				if(!dragging)return false;
+				scrollToSection(event.getY());
+				return true;
+
+			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_CANCEL:
+				dragging = false;
+				setPressed(false);
+				invalidate();
+				return true;
+		}
+		return false;
+	}
+
+	private void scrollToSection(float y)
+	{
+		thumbOffset = Math.max(0, Math.min(1, y / getHeight()));
+		int section = getDraggedSection();
+
+		RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+		if(layoutManager instanceof LinearLayoutManager)
+			((LinearLayoutManager) layoutManager).scrollToPositionWithOffset(sectionIndex.getPosition(section), 0);
+		invalidate();
+	}
+
+	private int getDraggedSection()
+	{
+		return Math.min((int) (thumbOffset * sectionIndex.size()), sectionIndex.size() - 1);
+	}
+}
@@ -19,30 +19,48 @@ package net.monoflop.filedirectorypicker;
 import android.Manifest;
 import android.content.Context;
 import android.content.res.ColorStateList;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.MessageQueue;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextPaint;
 import android.text.format.DateUtils;
+import android.text.method.LinkMovementMethod;
+import android.text.style.ClickableSpan;
+import android.util.DisplayMetrics;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
+import android.widget.Spinner;
 import android.widget.TextView;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.annotation.StyleRes;
 import androidx.annotation.UiThread;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.ContextCompat;
+import androidx.core.os.TraceCompat;
 import androidx.core.widget.ImageViewCompat;
 import androidx.fragment.app.DialogFragment;
 import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -55,11 +73,17 @@ import com.karumi.dexter.listener.PermissionRequest;
 import com.karumi.dexter.listener.single.PermissionListener;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -80,6 +104,33 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 {
 	public static final int ERROR_PERMISSION_DENIED = 1;
 	public static final int ERROR_EXTERNAL_STORAGE_NOT_AVAILABLE = 2;
+	public static final int ERROR_DOCUMENT_NOT_FOUND = 3;
+
+	//Listing snapshots are stored inside this cache sub directory
+	private static final String SNAPSHOT_DIRECTORY = "filedirectorypicker_snapshots";
+
+	//Selection logs are stored inside this cache sub directory
+	private static final String SELECTION_DIRECTORY = "filedirectorypicker_selection";
+	//Saved instance state key of the selection log handle
+	private static final String STATE_SELECTION_STORE = "selectionStore";
+
+	//Thumbnails are stored inside this cache sub directory
+	private static final String THUMBNAIL_DIRECTORY = "filedirectorypicker_thumbnails";
+	//Edge length of the entry image
+	private static final int THUMBNAIL_SIZE_DP = 40;
+	private static final int GRID_THUMBNAIL_SIZE_DP = 96;
+
+	//Approximate entry dimensions, used to size the view pool
+	private static final int LIST_ROW_HEIGHT_DP = 72;
+	private static final int GRID_ROW_HEIGHT_DP = 140;
+	private static final int GRID_CELL_WIDTH_DP = 112;
+	//Bound rows kept beyond the viewport for quick direction changes
+	private static final int CACHED_ROWS = 2;
+	//The fast scroller is only shown for folders with at least this number of entries
+	private static final int FAST_SCROLL_MIN_ENTRIES = 50;
+
+	//Number of directory listings kept in memory per storage volume
+	private static final int LISTING_CACHE_SIZE = 32;
 
 	//View binding
 	@BindView(R2.id.rootLayout) LinearLayout rootLayout;
@@ -88,15 +139,14 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	@BindView(R2.id.fileDirFolderImage) ImageView fileDirFolderImage;
 	@BindView(R2.id.fileDirTitle) TextView fileDirTitle;
 	@BindView(R2.id.fileDirPath) TextView fileDirPath;
+	@BindView(R2.id.volumeSpinner) Spinner volumeSpinner;
 
 	@BindView(R2.id.structureRecycler) RecyclerView structureRecycler;
+	@BindView(R2.id.fastScroller) FastScrollerView fastScroller;
 
 	@BindView(R2.id.cancelButton) MaterialButton cancelButton;
 	@BindView(R2.id.selectButton) MaterialButton selectButton;
 
-	//Default file sorting Comparator
-	private final Comparator<Entry> defaultSortingComparator = (o1, o2) -> o1.getName().compareTo(o2.getName());
-
 	//Builder Parameters
 	private boolean requestPermission;
 
@@ -108,33 +158,88 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 
 	private boolean showHidden;
 	private boolean showEmptyFolders;
+	private boolean cacheListings;
+	private boolean expandSelectedFolders;
+	private boolean showSelectionSize;
 
 	private String customTitle;
 	private boolean showAnimation;
 	private int animationStyle;
 	private boolean showDirectoryInfo;
+	private int largestFiles;
+	private boolean showThumbnails;
+	private boolean gridMode;
+	private boolean fastScroll;
+	private int pagingThreshold;
+	private boolean treeMode;
 	private CustomTheme customTheme;
 
 	private PickerResultListener pickerResultListener;
+	private PickerStreamResultListener pickerStreamResultListener;
+	private PickerDocumentResultListener pickerDocumentResultListener;
 	private PickerErrorListener pickerErrorListener;
+	private PickerMetricsListener pickerMetricsListener;
+	private PickerExecutor pickerExecutor;
 
 	private String[] fileEndingFilter;
+	private String[] mimeTypeFilter;
+	private RangeFilter rangeFilter;
+	private Uri documentTree;
+	private File fixedRootDirectory;
 
 	//Vars
 	private File rootDirectory;
 	private File currentRootDirectory;
 	private List<Entry> entryList;
 	private EntryAdapter entryAdapter;
+	private DirectoryLister directoryLister;
+	private DirectoryLister.Subscription currentListing;
+	private boolean listingComplete;
+	private AncestorCache ancestorCache;
+	//Child listings of expanded folders in tree mode
+	private final Map<Entry, DirectoryLister.Subscription> treeListings = new HashMap<>();
+
+	//Mounted storage volumes, the volume spinner is only shown for more than one volume
+	private List<StorageVolumes.Volume> volumes = Collections.emptyList();
+	private ListingCache listingCache;
+	//Start of the first listing, used for the first frame metric
+	private long createdTime;
+	private StorageVolumes.VolumeListener volumeListener;
+
+	//Only used if a Storage Access Framework document tree is shown
+	private DocumentTreeBackend documentTreeBackend;
+	//Replaces the local file system, e.g. to count storage operations in tests
+	private StorageBackend storageBackend;
+
+	//Only used if thumbnails are enabled
+	private ThumbnailLoader thumbnailLoader;
+
+	//Sections of the shown entries, built while batches arrive
+	private SectionIndex sectionIndex;
+
+	//Creates entry view holders while the main thread is idle
+	private HolderWarmUp holderWarmUp;
 
 	//Selected files and folders.
 	//Directory sub files are not included.
-	private List<File> selectedFiles;
-	private List<File> selectedFolders;
-
-	//HandlerThread is used to crawl directories async and show file count and folder size.
-	//Feature is disabled by default.
-	private HandlerThread handlerThread;
-	private Handler utilityHandler;
+	private Set<File> selectedFiles;
+	private Set<File> selectedFolders;
+	//Entry shown as selected in the single selection modes
+	private Entry singleSelectedEntry;
+	//Selection changes are appended to a cache file, so the selection survives process death
+	//without putting large path lists into the saved instance state.
+	private SelectionStore selectionStore;
+	//Walks the selected folders after the select button got clicked if expandSelectedFolders is set
+	private SelectionExpander selectionExpander;
+	//Total size and file count shown on the select button if showSelectionSize is set
+	private SelectionSummary selectionSummary;
+	//Crawls folders long clicked before their folder info was crawled
+	private TaskGroup analysisTasks;
+
+	//Background work is scheduled on the shared library pools (or the host executor).
+	//Tasks are grouped so they can be cancelled on navigation and destruction.
+	//Crawling directories to show file count and folder size is disabled by default.
+	private TaskGroup listingTasks;
 
 
 	/**
@@ -158,6 +263,18 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		return fileDirectoryPickerDialog;
 	}
 
+	/**
+	 * Lists folders through another storage backend instead of the local file system.
+	 * Must be set before the dialog is shown. Not used for document trees.
+	 *
+	 * @param storageBackend Storage backend, e.g. a {@link CountingStorageBackend} in tests
+	 */
+	@VisibleForTesting
+	void setStorageBackend(@NonNull StorageBackend storageBackend)
+	{
+		this.storageBackend = storageBackend;
+	}
+
 	@Override
 	public void onActivityCreated(@Nullable Bundle savedInstanceState)
 	{
@@ -174,6 +291,7 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	public void onCreate(@Nullable Bundle savedInstanceState)
 	{
 		super.onCreate(savedInstanceState);
+		createdTime = System.nanoTime();
 
 		//Read arguments from bundle:
 		Bundle bundle = getArguments();
@@ -189,6 +307,9 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		singleFolderMode = bundle.getBoolean("singleFolderMode");
 		showHidden = bundle.getBoolean("showHidden");
 		showEmptyFolders = bundle.getBoolean("showEmptyFolders");
+		cacheListings = bundle.getBoolean("cacheListings");
+		expandSelectedFolders = bundle.getBoolean("expandSelectedFolders");
+		showSelectionSize = bundle.getBoolean("showSelectionSize");
 
 		if(bundle.containsKey("customTitle"))
 			customTitle = bundle.getString("customTitle");
@@ -196,6 +317,20 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		showAnimation = bundle.getBoolean("showAnimation");
 		animationStyle = bundle.getInt("animationStyle");
 		showDirectoryInfo = bundle.getBoolean("showDirectoryInfo");
+		largestFiles = bundle.getInt("largestFiles");
+		showThumbnails = bundle.getBoolean("showThumbnails");
+		gridMode = bundle.getBoolean("gridMode");
+		fastScroll = bundle.getBoolean("fastScroll");
+		pagingThreshold = bundle.getInt("pagingThreshold");
+		treeMode = bundle.getBoolean("treeMode");
+
+		//Inline expansion needs a modifiable single column list with stable positions
+		if(treeMode)
+		{
+			gridMode = false;
+			fastScroll = false;
+			pagingThreshold = 0;
+		}
 
 		if(bundle.containsKey("customTheme"))
 			customTheme = (CustomTheme)bundle.getSerializable("customTheme");
@@ -203,12 +338,30 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		if(bundle.containsKey("pickerResultListener"))
 			pickerResultListener = bundle.getParcelable("pickerResultListener");
 
+		if(bundle.containsKey("pickerStreamResultListener"))
+			pickerStreamResultListener = bundle.getParcelable("pickerStreamResultListener");
+
+		if(bundle.containsKey("pickerDocumentResultListener"))
+			pickerDocumentResultListener = bundle.getParcelable("pickerDocumentResultListener");
+
 		if(bundle.containsKey("pickerErrorListener"))
 			pickerErrorListener = bundle.getParcelable("pickerErrorListener");
 
+		if(bundle.containsKey("pickerMetricsListener"))
+			pickerMetricsListener = bundle.getParcelable("pickerMetricsListener");
+
+		if(bundle.containsKey("pickerExecutor"))
+			pickerExecutor = bundle.getParcelable("pickerExecutor");
+
 		if(bundle.containsKey("fileEndingFilter"))
 			fileEndingFilter = bundle.getStringArray("fileEndingFilter");
+		if(bundle.containsKey("mimeTypeFilter"))
+			mimeTypeFilter = bundle.getStringArray("mimeTypeFilter");
 
+		if(bundle.containsKey("documentTree"))
+			documentTree = bundle.getParcelable("documentTree");
+		if(bundle.containsKey("rootDirectory"))
+			fixedRootDirectory = new File(bundle.getString("rootDirectory"));
 
 		//ViewMode is passed to the adapter in order to
 		//decide if files and/or folders are selectable
@@ -232,10 +385,91 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 			}
 		}
 
-		selectedFiles = new ArrayList<>();
-		selectedFolders = new ArrayList<>();
+		listingTasks = new TaskGroup(getExecutor(PickerExecutors.Pool.Listing));
+
+		DirectoryLister.Builder directoryListerBuilder = new DirectoryLister.Builder()
+				.showHidden(showHidden)
+				.showEmptyFolders(showEmptyFolders)
+				.crawlFolderInfo(showDirectoryInfo)
+				.analyzeFolders(largestFiles)
+				.pagingThreshold(pagingThreshold);
+		if(fileEndingFilter != null)
+			directoryListerBuilder.filterFileEndings(fileEndingFilter);
+		if(mimeTypeFilter != null)
+			directoryListerBuilder.filterMimeTypes(mimeTypeFilter);
+		long minSize = bundle.getLong("minSize", 0);
+		long maxSize = bundle.getLong("maxSize", Long.MAX_VALUE);
+		long minLastModified = bundle.getLong("minLastModified", Long.MIN_VALUE);
+		long maxLastModified = bundle.getLong("maxLastModified", Long.MAX_VALUE);
+		directoryListerBuilder.filterSize(minSize, maxSize)
+				.filterLastModified(minLastModified, maxLastModified);
+		//Same ranges are applied to files found while expanding selected folders
+		RangeFilter bundleRangeFilter = new RangeFilter(minSize, maxSize, minLastModified, maxLastModified);
+		if(bundleRangeFilter.isRestricted())
+			rangeFilter = bundleRangeFilter;
+		if(pickerExecutor != null)
+			directoryListerBuilder.withExecutor(pickerExecutor);
+		listingCache = new ListingCache(LISTING_CACHE_SIZE);
+		directoryListerBuilder.listingCache(listingCache);
+		if(documentTree != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+		{
+			//Document trees are listed through the content resolver.
+			//Snapshots are not used, document ids are only known after listing.
+			documentTreeBackend = new DocumentTreeBackend(requireContext().getContentResolver(), documentTree);
+			directoryListerBuilder.storageBackend(documentTreeBackend);
+		}
+		else
+		{
+			if(storageBackend != null)
+				directoryListerBuilder.storageBackend(storageBackend);
+			if(cacheListings)
+				directoryListerBuilder.snapshotDirectory(new File(requireContext().getCacheDir(), SNAPSHOT_DIRECTORY));
+		}
+		directoryLister = directoryListerBuilder.build();
+		ancestorCache = new AncestorCache(directoryLister.getStorageBackend());
+
+		//Refresh the volume spinner if volumes get mounted or removed
+		if(documentTreeBackend == null && fixedRootDirectory == null)
+		{
+			//Volume changes may be reported on any thread
+			volumeListener = () -> new Handler(Looper.getMainLooper()).post(this::loadStorageVolumes);
+			StorageVolumes.addVolumeListener(volumeListener);
+		}
+
+		selectedFiles = new LinkedHashSet<>();
+		selectedFolders = new LinkedHashSet<>();
 		entryList = new ArrayList<>();
-		entryAdapter = new EntryAdapter(requireContext(), entryList, this, viewMode, customTheme);
+
+		//Only the multi select button shows more than the selection state
+		if(showSelectionSize && !singleFileMode && !singleFolderMode)
+			selectionSummary = new SelectionSummary(directoryLister.getStorageBackend(),
+					getExecutor(PickerExecutors.Pool.Crawling), this::updateSelectButton);
+
+		File selectionDirectory = new File(requireContext().getCacheDir(), SELECTION_DIRECTORY);
+		Executor selectionExecutor = getExecutor(PickerExecutors.Pool.Listing);
+		String selectionHandle = savedInstanceState != null ? savedInstanceState.getString(STATE_SELECTION_STORE) : null;
+		if(selectionHandle != null)
+		{
+			selectionStore = SelectionStore.open(selectionDirectory, selectionHandle, selectionExecutor);
+			selectionStore.restore(selection ->
+			{
+				if(getActivity() == null)return;
+				getActivity().runOnUiThread(() -> restoreSelection(selection));
+			});
+		}
+		else selectionStore = SelectionStore.create(selectionDirectory, selectionExecutor);
+
+		//Thumbnails are decoded from file system paths and are not available for document trees
+		if(showThumbnails && documentTreeBackend == null)
+		{
+			int thumbnailSizeDp = gridMode ? GRID_THUMBNAIL_SIZE_DP : THUMBNAIL_SIZE_DP;
+			int thumbnailSize = (int) (thumbnailSizeDp * getResources().getDisplayMetrics().density);
+			thumbnailLoader = new ThumbnailLoader(thumbnailSize,
+					new File(requireContext().getCacheDir(), THUMBNAIL_DIRECTORY),
+					getExecutor(PickerExecutors.Pool.Thumbnails));
+		}
+		entryAdapter = new EntryAdapter(requireContext(), entryList, this, viewMode, customTheme,
+				thumbnailLoader, gridMode, treeMode);
 	}
 
 	@Nullable
@@ -248,14 +482,64 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		if(getDialog() != null && getDialog().getWindow() != null)
 			getDialog().getWindow().setBackgroundDrawableResource(android.R.color.transparent);
 
-		//Attach adapter and add item decoration
+		//Attach adapter and add layout manager
 		structureRecycler.setAdapter(entryAdapter);
-		LinearLayoutManager linearLayoutManager = new LinearLayoutManager(requireActivity());
-		structureRecycler.setLayoutManager(linearLayoutManager);
-		DividerItemDecoration itemDecor = new DividerItemDecoration(requireContext(), RecyclerView.VERTICAL);
-		structureRecycler.addItemDecoration(itemDecor);
+		DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+		int spanCount;
+		int visibleRows;
+		LinearLayoutManager layoutManager;
+		if(gridMode)
+		{
+			spanCount = Math.max(2, (int) (displayMetrics.widthPixels / (GRID_CELL_WIDTH_DP * displayMetrics.density)));
+			visibleRows = (int) (displayMetrics.heightPixels / (GRID_ROW_HEIGHT_DP * displayMetrics.density)) + 1;
+
+			GridLayoutManager gridLayoutManager = new GridLayoutManager(requireActivity(), spanCount);
+			gridLayoutManager.setSpanSizeLookup(new GridLayoutManager.SpanSizeLookup()
+			{
+				@Override
+				public int getSpanSize(int position)
+				{
+					//Navigate back entry takes the whole row
+					return entryList.get(position).getEntryType() == Entry.EntryType.None ? spanCount : 1;
+				}
+			});
+			layoutManager = gridLayoutManager;
+		}
+		else
+		{
+			spanCount = 1;
+			visibleRows = (int) (displayMetrics.heightPixels / (LIST_ROW_HEIGHT_DP * displayMetrics.density)) + 1;
+
+			layoutManager = new LinearLayoutManager(requireActivity());
+			DividerItemDecoration itemDecor = new DividerItemDecoration(requireContext(), RecyclerView.VERTICAL);
+			structureRecycler.addItemDecoration(itemDecor);
+		}
+
+		//Prefetch upcoming rows between frames and keep enough views around,
+		//so flinging through large folders rebinds instead of inflating.
+		layoutManager.setItemPrefetchEnabled(true);
+		structureRecycler.setLayoutManager(layoutManager);
+		structureRecycler.setHasFixedSize(true);
+		structureRecycler.setItemViewCacheSize(CACHED_ROWS * spanCount);
+		structureRecycler.getRecycledViewPool().setMaxRecycledViews(0, visibleRows * spanCount);
 		structureRecycler.setItemAnimator(null);
 
+		//Fill the view pool before the first listing arrives,
+		//e.g. while the permission is requested or the folder is read.
+		holderWarmUp = new HolderWarmUp(visibleRows * spanCount);
+		Looper.myQueue().addIdleHandler(holderWarmUp);
+
+		if(fastScroll)
+		{
+			sectionIndex = new SectionIndex();
+			fastScroller.attach(structureRecycler, sectionIndex);
+			if(customTheme != null)
+				fastScroller.setColors(customTheme.getEntryImage(), customTheme.getBackground());
+		}
+
+		//Ancestors shown in the path can be clicked
+		fileDirPath.setMovementMethod(LinkMovementMethod.getInstance());
+
 		//Apply theme colors
 		if(customTheme != null)
 		{
@@ -305,9 +589,22 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 
 		if(customTitle != null)
 			fileDirTitle.setText(customTitle);
+		updateSelectButton();
+
+		volumeSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener()
+		{
+			@Override
+			public void onItemSelected(AdapterView parent, View view, int position, long id)
+			{
+				if(position < volumes.size())switchVolume(volumes.get(position));
+			}
+
+			@Override
+			public void onNothingSelected(AdapterView parent) { }
+		});
 
 		//Load root directory async
-		new Thread(this::loadSharedStorage).start();
+		listingTasks.execute(this::loadSharedStorage);
 
 		return view;
 	}
@@ -317,16 +614,6 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	{
 		super.onResume();
 
-		//Manage handler thread lifecycle
-		if(showDirectoryInfo)
-		{
-			//Start handler thread
-			handlerThread = new HandlerThread("UtilityHandlerThread");
-			handlerThread.start();
-			Looper looper = handlerThread.getLooper();
-			utilityHandler = new Handler(looper);
-		}
-
 		//Capture back press
 		getDialog().setOnKeyListener((dialog, keyCode, event) ->
 		{
@@ -345,16 +632,9 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 								&& entryList.get(0).getFile() != null)
 						{
 							//Navigate back
+							//Parent of a listed folder, usually served from the ancestor cache
 							File newRootDir = entryList.get(0).getFile();
-							if(newRootDir.exists() && newRootDir.isDirectory())
-							{
-								currentRootDirectory = newRootDir;
-								requireActivity().runOnUiThread(() ->
-								{
-									fileDirPath.setText(newRootDir.getAbsolutePath());
-									loadFolderStructure(newRootDir);
-								});
-							}
+							requireActivity().runOnUiThread(() -> navigateTo(newRootDir));
 						}
 
 						return true;
@@ -368,18 +648,92 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	}
 
 	@Override
-	public void onPause()
+	public void onSaveInstanceState(@NonNull Bundle outState)
 	{
-		super.onPause();
+		super.onSaveInstanceState(outState);
+		outState.putString(STATE_SELECTION_STORE, selectionStore.getHandle());
+	}
+
+	@Override
+	public void onDestroyView()
+	{
+		super.onDestroyView();
+
+		if(holderWarmUp != null)
+			Looper.myQueue().removeIdleHandler(holderWarmUp);
+		if(sectionIndex != null)
+			fastScroller.detach();
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		super.onDestroy();
+
+		//Queued work survives onPause/onResume cycles
+		//and is only dropped once the dialog is gone.
+		listingTasks.cancelAll();
+		if(currentListing != null)
+			currentListing.cancel();
+		cancelTreeListings();
+		ancestorCache.clear();
+		if(volumeListener != null)
+			StorageVolumes.removeVolumeListener(volumeListener);
+		if(thumbnailLoader != null)
+			thumbnailLoader.evictAll();
+
+		if(selectionExpander != null)
+			selectionExpander.cancel();
+		if(selectionSummary != null)
+			selectionSummary.cancel();
+		if(analysisTasks != null)
+			analysisTasks.cancelAll();
+
+		//Keep the selection log only if the dialog gets recreated
+		if(isStateSaved())selectionStore.close();
+		else selectionStore.delete();
+	}
+
+	/**
+	 * Creates one entry view holder per idle main thread cycle
+	 * and puts it into the view pool of the recycler.
+	 * Stops once a full screen of holders exists.
+	 */
+	private class HolderWarmUp implements MessageQueue.IdleHandler
+	{
+		private final int holderCount;
+
+		HolderWarmUp(int holderCount)
+		{
+			this.holderCount = holderCount;
+		}
 
-		//Manage handler thread lifecycle
-		if(showDirectoryInfo)
+		@Override
+		public boolean queueIdle()
 		{
-			utilityHandler.removeCallbacksAndMessages(null);
-			handlerThread.quit();
+			RecyclerView.RecycledViewPool recycledViewPool = structureRecycler.getRecycledViewPool();
+			if(recycledViewPool.getRecycledViewCount(0) + structureRecycler.getChildCount() >= holderCount)
+				return false;
+
+			recycledViewPool.putRecycledView(entryAdapter.createViewHolder(structureRecycler, 0));
+			return true;
 		}
 	}
 
+	/**
+	 * Returns the executor used for the given pool.
+	 * The host executor takes precedence over the shared library pools.
+	 *
+	 * @param pool Pool
+	 * @return Executor
+	 */
+	@NonNull
+	private Executor getExecutor(@NonNull PickerExecutors.Pool pool)
+	{
+		if(pickerExecutor != null)return pickerExecutor;
+		return PickerExecutors.get(pool);
+	}
+
 	/**
 	 * Cancel button onClickListener.
 	 * Dismisses dialog.
@@ -393,13 +747,147 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	/**
 	 * Select button onClickListener.
 	 * Dismisses the dialog and returns selected files and folders.
+	 * Files inside selected folders are not returned separately.
 	 */
 	@OnClick(R2.id.selectButton)
 	public void selectButtonOnClick()
 	{
-		getDialog().dismiss();
+		SelectionTrie selection = SelectionTrie.of(selectedFiles, selectedFolders);
+		if(!expandSelectedFolders || selection.getFolders().isEmpty())
+		{
+			getDialog().dismiss();
+			deliverResult(selection.getFiles(), selection.getFolders());
+			return;
+		}
+
+		//Keep the dialog open and show the progress until all folders are walked
+		if(selectionExpander != null)return;
+		selectButton.setEnabled(false);
+		selectButton.setText(String.format(getString(R.string.picker_expanding_n), 0L));
+		selectionExpander = new SelectionExpander(directoryLister.getStorageBackend(), showHidden, rangeFilter,
+				getKnownFolderInfos(), getExecutor(PickerExecutors.Pool.Crawling));
+		selectionExpander.expand(selection, new SelectionExpander.Callback()
+		{
+			@Override
+			public void onProgress(long folderCount, long fileCount)
+			{
+				if(getActivity() == null)return;
+				getActivity().runOnUiThread(() ->
+				{
+					if(selectionExpander != null)
+						selectButton.setText(String.format(getString(R.string.picker_expanding_n), fileCount));
+				});
+			}
+
+			@Override
+			public void onExpanded(@NonNull List<File> files)
+			{
+				if(getActivity() == null)return;
+				getActivity().runOnUiThread(() ->
+				{
+					if(selectionExpander == null || getDialog() == null)return;
+					selectionExpander = null;
+					getDialog().dismiss();
+					deliverResult(files, Collections.emptyList());
+				});
+			}
+		});
+	}
+
+	/**
+	 * Collects the crawled sizes and file counts of listed and measured folders,
+	 * used to skip folders without matching files while expanding the selection.
+	 *
+	 * @return Known folder infos
+	 */
+	@NonNull
+	@UiThread
+	private Map<File, FolderInfo> getKnownFolderInfos()
+	{
+		Map<File, FolderInfo> folderInfos = selectionSummary != null ? selectionSummary.getKnownInfos() : new HashMap<>();
+		//Paged listings are never crawled
+		if(entryList instanceof EntryPager)return folderInfos;
+
+		for(Entry entry : entryList)
+		{
+			if(entry.getEntryType() == Entry.EntryType.Folder && entry.getFolderInfo() != null)
+				folderInfos.put(entry.getFile(), entry.getFolderInfo());
+		}
+		return folderInfos;
+	}
+
+	/**
+	 * Passes the normalized selection to the result listeners.
+	 *
+	 * @param files Selected files
+	 * @param folders Selected folders
+	 */
+	@UiThread
+	private void deliverResult(@NonNull List<File> files, @NonNull List<File> folders)
+	{
 		if(pickerResultListener != null)
-			pickerResultListener.onPickerResult(selectedFiles, selectedFolders);
+			pickerResultListener.onPickerResult(files, folders);
+
+		if(pickerStreamResultListener != null && documentTreeBackend == null)
+			pickerStreamResultListener.onPickerResult(new SelectionStream(directoryLister.getStorageBackend(),
+					files, folders, showHidden, rangeFilter));
+
+		if(pickerDocumentResultListener != null && documentTreeBackend != null)
+			deliverDocumentResult(files, folders);
+	}
+
+	/**
+	 * Resolves the selected virtual document paths to document uris in the background
+	 * and passes them to the document result listener.
+	 * Paths which can not be resolved are reported as {@link #ERROR_DOCUMENT_NOT_FOUND}
+	 * instead of returning an incomplete selection.
+	 *
+	 * @param files Selected files
+	 * @param folders Selected folders
+	 */
+	@UiThread
+	private void deliverDocumentResult(@NonNull List<File> files, @NonNull List<File> folders)
+	{
+		//Listeners are captured, the dialog is already dismissed when the uris are resolved
+		DocumentTreeBackend backend = documentTreeBackend;
+		PickerDocumentResultListener resultListener = pickerDocumentResultListener;
+		PickerErrorListener errorListener = pickerErrorListener;
+		Handler mainHandler = new Handler(Looper.getMainLooper());
+
+		getExecutor(PickerExecutors.Pool.Listing).execute(() ->
+		{
+			try
+			{
+				List<Uri> fileUris = toDocumentUris(backend, files);
+				List<Uri> folderUris = toDocumentUris(backend, folders);
+				mainHandler.post(() -> resultListener.onPickerResult(fileUris, folderUris));
+			}
+			catch(IOException e)
+			{
+				if(errorListener != null)
+					mainHandler.post(() -> errorListener.onPickerError(ERROR_DOCUMENT_NOT_FOUND));
+			}
+		});
+	}
+
+	/**
+	 * Resolves selected virtual document paths to document uris.
+	 *
+	 * @param backend Document tree
+	 * @param files Selected virtual paths
+	 * @return Document uris
+	 * @throws IOException If a path can not be resolved
+	 */
+	@NonNull
+	@WorkerThread
+	private static List<Uri> toDocumentUris(@NonNull DocumentTreeBackend backend, @NonNull List<File> files) throws IOException
+	{
+		List<Uri> uris = new ArrayList<>(files.size());
+		for(File file : files)
+		{
+			uris.add(backend.getDocumentUri(file));
+		}
+		return uris;
 	}
 
 	/**
@@ -412,66 +900,47 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	public void onEntrySelected(Entry entry, boolean selected)
 	{
 		File selectedFile = entry.getFile();
+		if(selectionSummary != null && entry.getEntryType() == Entry.EntryType.File)
+			selectionSummary.putFileSize(selectedFile, entry.getSize());
 
 		//Allow only one file or one folder to be selected
 		if(singleFileMode && singleFolderMode)
 		{
 			if(selected)
 			{
-				//Deselect all entries
-				for(Entry activeEntry : entryList)
-				{
-					if(activeEntry.isSelected() && !activeEntry.getFile().equals(selectedFile))
-					{
-						activeEntry.setSelected(false);
-						requireActivity().runOnUiThread(() ->
-								entryAdapter.notifyItemChanged(entryList.indexOf(activeEntry)));
-					}
-				}
+				//Only the previously selected entry can be shown as selected
+				deselectSingleEntry(entry);
 
 				//Clear selected files and folders
-				selectedFiles.clear();
-				selectedFolders.clear();
+				clearSelection();
 
 				//Add selected file or folder
-				if (selectedFile.isFile())
+				if (entry.getEntryType() == Entry.EntryType.File)
 				{
-					selectedFiles.add(selectedFile);
+					addSelection(selectedFile, false);
 				}
-				else if (selectedFile.isDirectory())
+				else if (entry.getEntryType() == Entry.EntryType.Folder)
 				{
-					selectedFolders.add(selectedFile);
+					addSelection(selectedFile, true);
 				}
 
 				//Mark entry as selected
-				for(Entry activeEntry : entryList)
-				{
-					if(activeEntry.getFile().equals(selectedFile))
-					{
-						activeEntry.setSelected(true);
-					}
-				}
+				entry.setSelected(true);
+				singleSelectedEntry = entry;
 			}
 			else
 			{
-				if (selectedFile.isFile())
+				if (entry.getEntryType() == Entry.EntryType.File)
 				{
-					selectedFiles.remove(selectedFile);
-				} else if (selectedFile.isDirectory())
+					removeSelection(selectedFile, false);
+				} else if (entry.getEntryType() == Entry.EntryType.Folder)
 				{
-					selectedFolders.remove(selectedFile);
+					removeSelection(selectedFile, true);
 				}
 			}
 
 			//Update select button
-			if(selectedFiles.size() + selectedFolders.size() == 1)
-			{
-				selectButton.setEnabled(true);
-			}
-			else
-			{
-				selectButton.setEnabled(false);
-			}
+			updateSelectButton();
 		}
 		//Single file and single folder mode
 		else if(singleFileMode || singleFolderMode)
@@ -479,97 +948,170 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 			//Allow only one file or folder to select
 			if(selected)
 			{
-				//Deselect all entries
-				for(Entry activeEntry : entryList)
-				{
-					if(activeEntry.isSelected() && !activeEntry.getFile().equals(selectedFile))
-					{
-						activeEntry.setSelected(false);
-						requireActivity().runOnUiThread(() ->
-								entryAdapter.notifyItemChanged(entryList.indexOf(activeEntry)));
-					}
-				}
+				//Only the previously selected entry can be shown as selected
+				deselectSingleEntry(entry);
 
 				//Clear selected files and folders
-				selectedFiles.clear();
-				selectedFolders.clear();
+				clearSelection();
 
-				if (selectedFile.isFile())
+				if (entry.getEntryType() == Entry.EntryType.File)
 				{
-					selectedFiles.add(selectedFile);
-				} else if (selectedFile.isDirectory())
+					addSelection(selectedFile, false);
+				} else if (entry.getEntryType() == Entry.EntryType.Folder)
 				{
-					selectedFolders.add(selectedFile);
+					addSelection(selectedFile, true);
 				}
 
 				//Mark entry as selected
-				for(Entry activeEntry : entryList)
-				{
-					if(activeEntry.getFile().equals(selectedFile))
-					{
-						activeEntry.setSelected(true);
-					}
-				}
+				entry.setSelected(true);
+				singleSelectedEntry = entry;
 			}
 			//Deselect
 			else
 			{
-				if (selectedFile.isFile())
+				if (entry.getEntryType() == Entry.EntryType.File)
 				{
-					selectedFiles.remove(selectedFile);
-				} else if (selectedFile.isDirectory())
+					removeSelection(selectedFile, false);
+				} else if (entry.getEntryType() == Entry.EntryType.Folder)
 				{
-					selectedFolders.remove(selectedFile);
+					removeSelection(selectedFile, true);
 				}
 			}
 
 			//Update select button
-			if(selectedFiles.size() + selectedFolders.size() == 1)
-			{
-				selectButton.setEnabled(true);
-			}
-			else
-			{
-				selectButton.setEnabled(false);
-			}
+			updateSelectButton();
 		}
 		else
 		{
 			//Select new entry
 			if(selected)
 			{
-				if (selectedFile.isFile())
+				if (entry.getEntryType() == Entry.EntryType.File)
 				{
-					selectedFiles.add(selectedFile);
-				} else if (selectedFile.isDirectory())
+					addSelection(selectedFile, false);
+				} else if (entry.getEntryType() == Entry.EntryType.Folder)
 				{
-					selectedFolders.add(selectedFile);
+					addSelection(selectedFile, true);
 				}
 			}
 			//Un select entry
 			else
 			{
-				if (selectedFile.isFile())
+				if (entry.getEntryType() == Entry.EntryType.File)
 				{
-					selectedFiles.remove(selectedFile);
-				} else if (selectedFile.isDirectory())
+					removeSelection(selectedFile, false);
+				} else if (entry.getEntryType() == Entry.EntryType.Folder)
 				{
-					selectedFolders.remove(selectedFile);
+					removeSelection(selectedFile, true);
 				}
 			}
 
 			//Update select button
-			int selectedFilesAndFolders = selectedFiles.size() + selectedFolders.size();
-			if (selectedFilesAndFolders == 0)
-			{
-				selectButton.setEnabled(false);
-				selectButton.setText(getString(R.string.button_select));
-			} else
-			{
-				selectButton.setEnabled(true);
-				selectButton.setText(String.format(getString(R.string.picker_title_select_n), selectedFilesAndFolders));
-			}
+			updateSelectButton();
+		}
+	}
+
+	/**
+	 * Enables the select button and shows the number of selected files and folders.
+	 */
+	@UiThread
+	private void updateSelectButton()
+	{
+		//The button shows the progress while selected folders are expanded
+		if(selectButton == null || selectionExpander != null)return;
+
+		int selectedFilesAndFolders = selectedFiles.size() + selectedFolders.size();
+		if(singleFileMode || singleFolderMode)
+		{
+			selectButton.setEnabled(selectedFilesAndFolders == 1);
+		}
+		else if (selectedFilesAndFolders == 0)
+		{
+			selectButton.setEnabled(false);
+			selectButton.setText(getString(R.string.button_select));
+		} else if(selectionSummary != null)
+		{
+			selectButton.setEnabled(true);
+			String size = FileUtils.humanReadableByteCount(getResources().getConfiguration().locale,
+					selectionSummary.getTotalSize(), true);
+			int format = selectionSummary.isComplete() ? R.string.picker_title_select_n_size : R.string.picker_title_select_n_size_pending;
+			selectButton.setText(String.format(getString(format), selectedFilesAndFolders, size, selectionSummary.getTotalFileCount()));
+		} else
+		{
+			selectButton.setEnabled(true);
+			selectButton.setText(String.format(getString(R.string.picker_title_select_n), selectedFilesAndFolders));
+		}
+	}
+
+	/**
+	 * Adds the file or folder to the selection and the selection log.
+	 *
+	 * @param file Selected file or folder
+	 * @param folder Is folder
+	 */
+	@UiThread
+	private void addSelection(@NonNull File file, boolean folder)
+	{
+		if(!(folder ? selectedFolders : selectedFiles).add(file))return;
+		selectionStore.add(file, folder);
+		if(selectionSummary != null)
+			selectionSummary.add(file, folder);
+	}
+
+	/**
+	 * Removes the file or folder from the selection and the selection log.
+	 *
+	 * @param file Deselected file or folder
+	 * @param folder Is folder
+	 */
+	@UiThread
+	private void removeSelection(@NonNull File file, boolean folder)
+	{
+		if(!(folder ? selectedFolders : selectedFiles).remove(file))return;
+		selectionStore.remove(file, folder);
+		selectionStore.compactIfNeeded(selectedFiles, selectedFolders);
+		if(selectionSummary != null)
+			selectionSummary.remove(file, folder);
+	}
+
+	/**
+	 * Clears the selection and the selection log.
+	 */
+	@UiThread
+	private void clearSelection()
+	{
+		selectedFiles.clear();
+		selectedFolders.clear();
+		selectionStore.clear();
+		selectionStore.compactIfNeeded(selectedFiles, selectedFolders);
+		if(selectionSummary != null)
+			selectionSummary.clear();
+	}
+
+	/**
+	 * Applies the selection restored from the log of the previous dialog instance.
+	 * Entries selected meanwhile are kept.
+	 *
+	 * @param selection Restored selection
+	 */
+	@UiThread
+	private void restoreSelection(@NonNull SelectionStore.Selection selection)
+	{
+		for(File file : selection.getFiles())
+		{
+			if(!selectedFiles.add(file))continue;
+			if(selectionSummary != null)selectionSummary.add(file, false);
+		}
+		for(File folder : selection.getFolders())
+		{
+			if(!selectedFolders.add(folder))continue;
+			if(selectionSummary != null)selectionSummary.add(folder, true);
 		}
+
+		//Paged entries are selected once they get created
+		if(!(entryList instanceof EntryPager))reselectEntries(entryList);
+		entryAdapter.notifyDataSetChanged();
+		updateSelectButton();
 	}
 
 	/**
@@ -584,15 +1126,11 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	{
 		//Select new root folder
 		File newRootDir = entry.getFile();
-		if(newRootDir.exists() && newRootDir.isDirectory())
+		if(directoryLister.isDirectory(newRootDir))
 		{
-			if(showDirectoryInfo)
-				utilityHandler.removeCallbacksAndMessages(null);
-			currentRootDirectory = newRootDir;
 			requireActivity().runOnUiThread(() ->
 			{
-				fileDirPath.setText(newRootDir.getAbsolutePath());
-				loadFolderStructure(newRootDir);
+				navigateTo(newRootDir);
 				structureRecycler.scrollTo(0,0);
 			});
 		}
@@ -600,45 +1138,214 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 
 
 	/**
-	 * Request/Checks required permission and displays
-	 * all files and folders inside the shared storage root directory.
+	 * Method is called by the adapter if the expand toggle of a folder is clicked in tree mode.
+	 * Children are listed when the folder is expanded and released when it is collapsed.
+	 *
+	 * @param folder Folder entry
 	 */
-	private void loadSharedStorage()
+	@Override
+	public void onFolderExpandClicked(Entry folder)
 	{
-		if(requestPermission)
+		if(folder.isExpanded())
 		{
-			Dexter.withActivity(requireActivity())
-					.withPermission(Manifest.permission.READ_EXTERNAL_STORAGE)
-					.withListener(new PermissionListener()
-					{
-						@Override
-						public void onPermissionGranted(PermissionGrantedResponse response)
-						{
-							//Check if storage is mounted
-							if(!FileUtils.isExternalStorageAvailable())
-							{
-								requireActivity().runOnUiThread(() ->
-								{
-									if (getDialog() != null)
-									{
-										getDialog().dismiss();
-									}
-								});
+			folder.setExpanded(false);
+			cancelTreeListing(folder);
+			for(Entry descendant : entryAdapter.removeChildren(folder))
+			{
+				if(descendant.isExpanded())cancelTreeListing(descendant);
+			}
+		}
+		else
+		{
+			folder.setExpanded(true);
+			treeListings.put(folder, directoryLister.list(folder.getFile(), new TreeListingSubscriber(folder)));
+		}
+		entryAdapter.notifyEntryChanged(folder);
+	}
+
+	/**
+	 * Method is called by the adapter if a folder is long clicked.
+	 * Shows the largest files of the folder, the folder is crawled first if needed.
+	 *
+	 * @param folder Folder entry
+	 * @return True if the click was handled
+	 */
+	@Override
+	public boolean onFolderLongClicked(Entry folder)
+	{
+		if(largestFiles == 0)return false;
+
+		FolderInfo folderInfo = folder.getFolderInfo();
+		if(folderInfo != null && folderInfo.getAnalysis() != null)
+		{
+			showLargestFiles(folder.getFile(), folderInfo.getAnalysis());
+			return true;
+		}
+
+		if(analysisTasks == null)analysisTasks = new TaskGroup(getExecutor(PickerExecutors.Pool.Crawling));
+		StorageBackend storageBackend = directoryLister.getStorageBackend();
+		File folderFile = folder.getFile();
+		analysisTasks.execute(() ->
+		{
+			FolderInfo crawledInfo = FolderCrawler.getFolderInfo(storageBackend, folderFile, largestFiles);
+			if(Thread.currentThread().isInterrupted() || getActivity() == null)return;
+			getActivity().runOnUiThread(() ->
+			{
+				if(getDialog() == null || !getDialog().isShowing())return;
+				folder.setFolderInfo(crawledInfo);
+				if(selectionSummary != null)
+					selectionSummary.putFolderInfo(folderFile, crawledInfo);
+				showLargestFiles(folderFile, crawledInfo.getAnalysis());
+			});
+		});
+		return true;
+	}
+
+	/**
+	 * Lists the largest files of a folder.
+	 * Files can be selected directly in multi select mode.
+	 *
+	 * @param folder Crawled folder
+	 * @param analysis Largest files and extension statistics of the folder
+	 */
+	@UiThread
+	private void showLargestFiles(@NonNull File folder, @NonNull FolderAnalysis analysis)
+	{
+		Context context = requireContext();
+		Locale locale = getResources().getConfiguration().locale;
+		List<FolderAnalysis.LargeFile> files = analysis.getLargestFiles();
+		String folderPath = folder.getAbsolutePath() + File.separator;
+
+		CharSequence[] items = new CharSequence[files.size()];
+		boolean[] checked = new boolean[files.size()];
+		for(int i = 0; i < files.size(); i++)
+		{
+			FolderAnalysis.LargeFile largeFile = files.get(i);
+			String path = largeFile.getFile().getAbsolutePath();
+			items[i] = (path.startsWith(folderPath) ? path.substring(folderPath.length()) : path)
+					+ " | " + FileUtils.humanReadableByteCount(locale, largeFile.getSize(), true);
+			checked[i] = selectedFiles.contains(largeFile.getFile());
+		}
+
+		AlertDialog.Builder builder = new AlertDialog.Builder(context)
+				.setTitle(String.format(getString(R.string.largest_files_title), folder.getName()))
+				.setNeutralButton(R.string.largest_files_types, (dialog, which) -> showExtensionStatistics(analysis));
+
+		if(selectFiles && !singleFileMode && !singleFolderMode)
+		{
+			builder.setMultiChoiceItems(items, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+					.setNegativeButton(R.string.button_cancel, null)
+					.setPositiveButton(R.string.button_select, (dialog, which) ->
+					{
+						for(int i = 0; i < files.size(); i++)
+						{
+							FolderAnalysis.LargeFile largeFile = files.get(i);
+							if(checked[i])
+							{
+								if(selectionSummary != null)
+									selectionSummary.putFileSize(largeFile.getFile(), largeFile.getSize());
+								addSelection(largeFile.getFile(), false);
+							}
+							else removeSelection(largeFile.getFile(), false);
+						}
+
+						//Paged entries are selected once they get created
+						if(!(entryList instanceof EntryPager))reselectEntries(entryList);
+						entryAdapter.notifyDataSetChanged();
+						updateSelectButton();
+					});
+		}
+		else builder.setItems(items, null);
+		builder.show();
+	}
+
+	/**
+	 * Lists the size and file count per file extension of a folder.
+	 *
+	 * @param analysis Extension statistics of the folder
+	 */
+	@UiThread
+	private void showExtensionStatistics(@NonNull FolderAnalysis analysis)
+	{
+		Locale locale = getResources().getConfiguration().locale;
+		List<CharSequence> items = new ArrayList<>();
+		for(Map.Entry<String, FolderInfo> extension : analysis.getExtensionStatistics().entrySet())
+		{
+			String name = extension.getKey().isEmpty() ? getString(R.string.largest_files_no_extension) : extension.getKey();
+			FolderInfo statistics = extension.getValue();
+			items.add(name + " | " + statistics.getFileCount() + " File(s) | "
+					+ FileUtils.humanReadableByteCount(locale, statistics.getSize(), true));
+		}
+
+		new AlertDialog.Builder(requireContext())
+				.setTitle(R.string.largest_files_types)
+				.setItems(items.toArray(new CharSequence[0]), null)
+				.show();
+	}
+
+	@UiThread
+	private void cancelTreeListing(@NonNull Entry folder)
+	{
+		DirectoryLister.Subscription subscription = treeListings.remove(folder);
+		if(subscription != null)subscription.cancel();
+	}
+
+	@UiThread
+	private void cancelTreeListings()
+	{
+		for(DirectoryLister.Subscription subscription : treeListings.values())
+		{
+			subscription.cancel();
+		}
+		treeListings.clear();
+	}
+
+	/**
+	 * Request/Checks required permission and displays
+	 * all files and folders inside the shared storage root directory.
+	 */
+	private void loadSharedStorage()
+	{
+		//Access to document trees is granted by the uri permission
+		if(documentTreeBackend != null)
+		{
+			showRootDirectory(documentTreeBackend.getRootDirectory(), false);
+			return;
+		}
+
+		//A fixed root is readable by the caller, volumes are not shown
+		if(fixedRootDirectory != null)
+		{
+			showRootDirectory(fixedRootDirectory, false);
+			return;
+		}
+
+		if(requestPermission)
+		{
+			Dexter.withActivity(requireActivity())
+					.withPermission(Manifest.permission.READ_EXTERNAL_STORAGE)
+					.withListener(new PermissionListener()
+					{
+						@Override
+						public void onPermissionGranted(PermissionGrantedResponse response)
+						{
+							//Check if storage is mounted
+							if(!FileUtils.isExternalStorageAvailable())
+							{
+								requireActivity().runOnUiThread(() ->
+								{
+									if (getDialog() != null)
+									{
+										getDialog().dismiss();
+									}
+								});
 
 								if(pickerErrorListener != null)
 									pickerErrorListener.onPickerError(ERROR_EXTERNAL_STORAGE_NOT_AVAILABLE);
 								return;
 							}
 
-							File externalStorageRoot = Environment.getExternalStorageDirectory();
-							rootDirectory = externalStorageRoot;
-							currentRootDirectory = externalStorageRoot;
-
-							requireActivity().runOnUiThread(() ->
-							{
-								fileDirPath.setText(externalStorageRoot.getAbsolutePath());
-								loadFolderStructure(externalStorageRoot);
-							});
+							showRootDirectory(Environment.getExternalStorageDirectory(), true);
 						}
 
 						@Override
@@ -685,15 +1392,7 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 					return;
 				}
 
-				File externalStorageRoot = Environment.getExternalStorageDirectory();
-				rootDirectory = externalStorageRoot;
-				currentRootDirectory = externalStorageRoot;
-
-				requireActivity().runOnUiThread(() ->
-				{
-					fileDirPath.setText(externalStorageRoot.getAbsolutePath());
-					loadFolderStructure(externalStorageRoot);
-				});
+				showRootDirectory(Environment.getExternalStorageDirectory(), true);
 			}
 			else
 			{
@@ -712,151 +1411,691 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 	}
 
 	/**
-	 * Filter and display all child files and folders from the root directory
+	 * Shows the root directory. The root is set on the ui thread,
+	 * which also reads the storage volumes afterwards.
 	 *
-	 * @param newRootDir Root directory
+	 * @param root Root directory
+	 * @param showVolumes Show the storage volume spinner
+	 */
+	private void showRootDirectory(@NonNull File root, boolean showVolumes)
+	{
+		requireActivity().runOnUiThread(() ->
+		{
+			rootDirectory = root;
+			currentRootDirectory = root;
+			showPath(root);
+			loadFolderStructure(root);
+			if(showVolumes)loadStorageVolumes();
+		});
+	}
+
+	/**
+	 * Reads the mounted storage volumes in the background and lists all volume roots concurrently,
+	 * so switching to another volume shows its listing immediately.
 	 */
 	@UiThread
-	private void loadFolderStructure(@NonNull File newRootDir)
+	private void loadStorageVolumes()
 	{
-		if(newRootDir.canRead())
+		if(!isAdded())return;
+
+		//The dialog may be dismissed while the volumes are read
+		Context context = requireContext().getApplicationContext();
+		Handler mainHandler = new Handler(Looper.getMainLooper());
+		File shownRoot = rootDirectory;
+
+		listingTasks.execute(() ->
 		{
-			List<Entry> newFolders = new ArrayList<>();
-			List<Entry> newFiles = new ArrayList<>();
+			List<StorageVolumes.Volume> mountedVolumes = StorageVolumes.get(context);
 
-			File[] subEntries = newRootDir.listFiles();
-			for(File subEntry : subEntries)
+			List<File> volumeRoots = new ArrayList<>(mountedVolumes.size());
+			for(StorageVolumes.Volume volume : mountedVolumes)
 			{
-				if(subEntry.canRead())
-				{
-					//Skip hidden files and folders
-					if(!showHidden && subEntry.isHidden())continue;
+				File volumeRoot = volume.getRoot();
+				volumeRoots.add(volumeRoot);
+				if(!volumeRoot.equals(shownRoot))
+					listingTasks.execute(() -> directoryLister.prefetch(volumeRoot));
+			}
+			listingCache.setVolumeRoots(volumeRoots);
 
-					Entry entry = new Entry();
-					entry.setName(subEntry.getName());
+			mainHandler.post(() ->
+			{
+				if(isAdded() && volumeSpinner != null)showStorageVolumes(mountedVolumes);
+			});
+		});
+	}
 
-					if(subEntry.isDirectory())
-					{
-						//Skip empty directories
-						if(!showEmptyFolders && subEntry.list().length == 0)continue;
+	/**
+	 * Updates the volume spinner.
+	 * Switches to the primary volume if the shown volume got removed.
+	 *
+	 * @param mountedVolumes Mounted volumes
+	 */
+	@UiThread
+	private void showStorageVolumes(@NonNull List<StorageVolumes.Volume> mountedVolumes)
+	{
+		//The volume listener may fire before the root is shown or after the permission got denied
+		if(rootDirectory == null)return;
+		volumes = mountedVolumes;
 
-						entry.setEntryType(Entry.EntryType.Folder);
+		ArrayAdapter<StorageVolumes.Volume> volumeAdapter =
+				new ArrayAdapter<>(requireContext(), android.R.layout.simple_spinner_item, mountedVolumes);
+		volumeAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+		volumeSpinner.setAdapter(volumeAdapter);
+		volumeSpinner.setVisibility(mountedVolumes.size() > 1 ? View.VISIBLE : View.GONE);
+		if(mountedVolumes.isEmpty())return;
 
-						if(subEntry.list().length == 0)
-							entry.setInfo("Empty Directory");
-						else
-							entry.setInfo("Directory");
+		StorageVolumes.Volume shownVolume = StorageVolumes.find(mountedVolumes, rootDirectory);
+		if(shownVolume == null)
+		{
+			switchVolume(mountedVolumes.get(0));
+			shownVolume = mountedVolumes.get(0);
+		}
+		volumeSpinner.setSelection(mountedVolumes.indexOf(shownVolume));
+	}
 
-						//Asynchronous crawl child files and folders
-						//to calculate folder size and file count.
-						if(showDirectoryInfo)
-						{
-							utilityHandler.post(() ->
-							{
-								FileUtils.FolderInfo folderInfo = FileUtils.getFolderInfo(subEntry);
-								entry.setInfo("Directory "
-										+ folderInfo.getFileCount()
-										+ " File(s) | "
-										+ FileUtils.humanReadableByteCount(getResources().getConfiguration().locale,
-										folderInfo.getSize(),
-										true));
-								if (entryList.indexOf(entry) != -1)
-								{
-									if (getActivity() != null)
-									{
-										getActivity().runOnUiThread(() ->
-												entryAdapter.notifyItemChanged(entryList.indexOf(entry)));
-									}
-								}
-							});
-						}
-					}
+	/**
+	 * Displays the root directory of the volume.
+	 *
+	 * @param volume Storage volume
+	 */
+	@UiThread
+	private void switchVolume(@NonNull StorageVolumes.Volume volume)
+	{
+		File volumeRoot = volume.getRoot();
+		if(volumeRoot.equals(rootDirectory))return;
+
+		rootDirectory = volumeRoot;
+		currentRootDirectory = volumeRoot;
+		ancestorCache.clear();
+		showPath(volumeRoot);
+		loadFolderStructure(volumeRoot);
+		structureRecycler.scrollTo(0,0);
+	}
 
-					if(subEntry.isFile())
-					{
-						//Filter out unwanted files
-						if(fileEndingFilter != null)
-						{
-							boolean filterFile = true;
-							for(String fileEnding : fileEndingFilter)
-							{
-								if(subEntry.getName().endsWith("." + fileEnding))
-								{
-									filterFile = false;
-									break;
-								}
-							}
+	/**
+	 * Shows another folder below the root directory.
+	 * The complete listing of the left folder is kept if it is an ancestor of the new folder,
+	 * ancestors are shown from these listings without listing them again.
+	 *
+	 * @param directory Folder
+	 */
+	@UiThread
+	private void navigateTo(@NonNull File directory)
+	{
+		if(listingComplete && treeListings.isEmpty() && !(entryList instanceof EntryPager))
+			ancestorCache.put(currentRootDirectory, entryList);
+		List<Entry> cachedEntries = ancestorCache.remove(directory);
+		ancestorCache.retainAncestorsOf(directory);
 
-							if(filterFile)continue;
-						}
+		//Documents below a left folder are listed again if they are needed later
+		if(documentTreeBackend != null
+				&& !directory.getAbsolutePath().startsWith(currentRootDirectory.getAbsolutePath() + File.separator))
+			documentTreeBackend.release(currentRootDirectory);
 
-						entry.setEntryType(Entry.EntryType.File);
+		currentRootDirectory = directory;
+		showPath(directory);
+		if(cachedEntries == null)
+		{
+			loadFolderStructure(directory);
+			return;
+		}
 
-						//Read file info.
-						//FILE SIZE | LAST MODIFIED DATE AND TIME
-						String fileInfo = FileUtils.humanReadableByteCount(getResources().getConfiguration().locale, subEntry.length(), true);
-						fileInfo += " | " + DateUtils.formatDateTime(requireContext(), subEntry.lastModified(), FORMAT_NUMERIC_DATE | FORMAT_SHOW_YEAR)
-								+ " " + DateUtils.formatDateTime(requireContext(), subEntry.lastModified(), FORMAT_SHOW_TIME);
-						entry.setInfo(fileInfo);
-					}
+		//Cache hit, swap in the stored entries
+		if(currentListing != null)
+			currentListing.cancel();
+		currentListing = null;
+		cancelTreeListings();
 
-					entry.setFile(subEntry);
+		reselectEntries(cachedEntries);
+		showEntryList(cachedEntries);
+		listingComplete = true;
+		if(sectionIndex != null)
+		{
+			Entry navigateBackEntry = getNavigateBackEntry();
+			int start = navigateBackEntry != null ? 1 : 0;
+			sectionIndex.clear();
+			sectionIndex.append(cachedEntries.subList(start, cachedEntries.size()), start);
+			updateFastScroller();
+		}
+	}
 
-					if(subEntry.isDirectory()) newFolders.add(entry);
-					else if(subEntry.isFile()) newFiles.add(entry);
+	/**
+	 * Shows the path of the folder as breadcrumb bar.
+	 * Every ancestor up to the root directory can be clicked to jump there directly.
+	 *
+	 * @param directory Shown folder
+	 */
+	@UiThread
+	private void showPath(@NonNull File directory)
+	{
+		String path = directory.getAbsolutePath();
+		SpannableStringBuilder breadcrumbs = new SpannableStringBuilder(path);
+
+		String rootPath = rootDirectory.getAbsolutePath();
+		for(File ancestor = directory.getParentFile(); ancestor != null; ancestor = ancestor.getParentFile())
+		{
+			String ancestorPath = ancestor.getAbsolutePath();
+			if(!ancestorPath.startsWith(rootPath))break;
+
+			//The root directory is a single segment, even if it spans several path components
+			int end = ancestorPath.length();
+			int start = ancestorPath.equals(rootPath) ? 0 : end - ancestor.getName().length();
+			File target = ancestor;
+			breadcrumbs.setSpan(new ClickableSpan()
+			{
+				@Override
+				public void onClick(@NonNull View widget)
+				{
+					navigateTo(target);
 				}
-			}
 
-			//Default sorting:
-			//folders in lexicographic order followed by files in lexicographic order.
-			Collections.sort(newFolders, defaultSortingComparator);
-			Collections.sort(newFiles, defaultSortingComparator);
+				@Override
+				public void updateDrawState(@NonNull TextPaint textPaint)
+				{
+					//Keep the header path color
+					textPaint.setUnderlineText(true);
+				}
+			}, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		}
+		fileDirPath.setText(breadcrumbs);
+	}
+
+	/**
+	 * Filter and display all child files and folders from the root directory.
+	 * Entries are listed asynchronously and appended batch by batch.
+	 *
+	 * @param newRootDir Root directory
+	 */
+	@UiThread
+	private void loadFolderStructure(@NonNull File newRootDir)
+	{
+		//Drop pending results and crawls of the previous folder
+		if(currentListing != null)
+			currentListing.cancel();
+		cancelTreeListings();
+		listingComplete = false;
+
+		//Check if we are in the absolute root directory
+		//else add the navigate back directory to the top
+		List<Entry> newEntryList = new ArrayList<>();
+		if(!newRootDir.equals(rootDirectory))
+		{
+			Entry entry = new Entry();
+			entry.setName("Navigate back");
+			entry.setInfo("...");
+			entry.setFile(newRootDir.getParentFile());
+			entry.setEntryType(Entry.EntryType.None);
+			newEntryList.add(entry);
+		}
+
+		//The previous list may be a read only pager
+		showEntryList(newEntryList);
+		if(sectionIndex != null)
+		{
+			sectionIndex.clear();
+			updateFastScroller();
+		}
+
+		//The first listing is measured from the creation of the dialog
+		long navigationStart = createdTime != 0 ? createdTime : System.nanoTime();
+		createdTime = 0;
+		currentListing = directoryLister.list(newRootDir, new FolderListingSubscriber(navigationStart));
+	}
+
+	/**
+	 * Replaces all shown entries.
+	 *
+	 * @param newEntryList Entries, either a modifiable list or a pager
+	 */
+	@UiThread
+	private void showEntryList(@NonNull List<Entry> newEntryList)
+	{
+		entryList = newEntryList;
+		entryAdapter.setEntryList(newEntryList);
+		entryAdapter.notifyDataSetChanged();
+	}
+
+	/**
+	 * Returns the navigate back entry.
+	 *
+	 * @return Navigate back entry or null in the root directory
+	 */
+	@Nullable
+	@UiThread
+	private Entry getNavigateBackEntry()
+	{
+		if(!entryList.isEmpty() && entryList.get(0).getEntryType() == Entry.EntryType.None)return entryList.get(0);
+		return null;
+	}
 
-			entryList.clear();
+	/**
+	 * Shows the fast scroller for large folders and moves its thumb.
+	 */
+	@UiThread
+	private void updateFastScroller()
+	{
+		boolean visible = entryList.size() >= FAST_SCROLL_MIN_ENTRIES && sectionIndex.size() > 1;
+		fastScroller.setVisibility(visible ? View.VISIBLE : View.GONE);
+		if(visible)fastScroller.updateThumbOffset();
+	}
 
-			//Check if we are in the absolute root directory
-			//else add the navigate back directory to the top
-			if(!newRootDir.equals(rootDirectory))
+	/**
+	 * Reselect selected files and folders.
+	 *
+	 * @param entries Newly listed entries
+	 */
+	@UiThread
+	private void reselectEntries(@NonNull List<Entry> entries)
+	{
+		//Selections are hash sets, lookups keep reselection linear in the batch size
+		for(Entry entry : entries)
+		{
+			File entryFile = entry.getFile();
+			if(entry.getEntryType() == Entry.EntryType.Folder)
+			{
+				entry.setSelected(selectedFolders.contains(entryFile));
+			}
+			else if(entry.getEntryType() == Entry.EntryType.File)
 			{
-				Entry entry = new Entry();
-				entry.setName("Navigate back");
-				entry.setInfo("...");
-				entry.setFile(newRootDir.getParentFile());
-				//entry.setPath(newRootDir.getParentFile().getAbsolutePath());
-				entry.setEntryType(Entry.EntryType.None);
-				entryList.add(entry);
+				entry.setSelected(selectedFiles.contains(entryFile));
 			}
+			if(entry.isSelected())singleSelectedEntry = entry;
+		}
+	}
 
-			entryList.addAll(newFolders);
-			entryList.addAll(newFiles);
+	/**
+	 * Reselects a single created entry, e.g. of a pager page.
+	 *
+	 * @param entry Created entry
+	 */
+	@UiThread
+	private void reselectEntry(@NonNull Entry entry)
+	{
+		if(entry.getEntryType() == Entry.EntryType.Folder)
+			entry.setSelected(selectedFolders.contains(entry.getFile()));
+		else
+			entry.setSelected(selectedFiles.contains(entry.getFile()));
+		if(entry.isSelected())singleSelectedEntry = entry;
+	}
+
+	/**
+	 * Deselects the entry selected before in the single selection modes.
+	 * Recreated entries are reselected from the selection, so no other entry is searched.
+	 *
+	 * @param entry Newly selected entry
+	 */
+	@UiThread
+	private void deselectSingleEntry(@NonNull Entry entry)
+	{
+		if(singleSelectedEntry != null && singleSelectedEntry != entry)
+		{
+			singleSelectedEntry.setSelected(false);
+			entryAdapter.notifyEntryChanged(singleSelectedEntry);
+		}
+		singleSelectedEntry = null;
+	}
 
-			//Reselect selected files and folders
-			for(Entry entry : entryList)
+	/**
+	 * Builds the information text of a listed entry.
+	 * FOLDER : (EMPTY) DIRECTORY
+	 * FILE : FILE SIZE | LAST MODIFIED DATE AND TIME
+	 *
+	 * @param context Context
+	 * @param entry Entry
+	 * @return Information text
+	 */
+	@NonNull
+	private static String formatEntryInfo(@NonNull Context context, @NonNull Entry entry)
+	{
+		if(entry.getEntryType() == Entry.EntryType.Folder)
+		{
+			if(entry.isEmpty())return "Empty Directory";
+			else return "Directory";
+		}
+
+		String fileInfo = FileUtils.humanReadableByteCount(context.getResources().getConfiguration().locale, entry.getSize(), true);
+		fileInfo += " | " + DateUtils.formatDateTime(context, entry.getLastModified(), FORMAT_NUMERIC_DATE | FORMAT_SHOW_YEAR)
+				+ " " + DateUtils.formatDateTime(context, entry.getLastModified(), FORMAT_SHOW_TIME);
+		return fileInfo;
+	}
+
+	/**
+	 * Builds the information text of a crawled folder.
+	 *
+	 * @param context Context
+	 * @param folderInfo Folder size and file count
+	 * @return Information text
+	 */
+	@NonNull
+	private static String formatFolderInfo(@NonNull Context context, @NonNull FolderInfo folderInfo)
+	{
+		return "Directory "
+				+ folderInfo.getFileCount()
+				+ " File(s) | "
+				+ FileUtils.humanReadableByteCount(context.getResources().getConfiguration().locale,
+				folderInfo.getSize(),
+				true);
+	}
+
+	/**
+	 * Receives the listing of the current root directory.
+	 * Text is formatted on the formatting pool, the entry list is only modified on the ui thread.
+	 * All results pass one serial executor, so they are applied in delivery order.
+	 */
+	private class FolderListingSubscriber implements DirectoryLister.Subscriber
+	{
+		private final long navigationStart;
+		private final Executor formattingExecutor = new SerialExecutor(getExecutor(PickerExecutors.Pool.Formatting));
+		private DirectoryLister.Subscription subscription;
+
+		//Metrics state, only accessed on the ui thread
+		private long applyTime;
+		private boolean firstFrameScheduled;
+		private boolean firstFrameDrawn;
+		private long firstFrameTime;
+		private ListingMetrics completedMetrics;
+
+		FolderListingSubscriber(long navigationStart)
+		{
+			this.navigationStart = navigationStart;
+		}
+
+		@Override
+		public void onSubscribe(@NonNull DirectoryLister.Subscription subscription)
+		{
+			this.subscription = subscription;
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onEntries(@NonNull List<Entry> entries)
+		{
+			Context context = getContext();
+			if(context == null)return;
+
+			formattingExecutor.execute(() ->
 			{
-				File entryFile = entry.getFile();
-				if(entryFile.isDirectory())
+				for(Entry entry : entries)
+				{
+					entry.setInfo(formatEntryInfo(context, entry));
+				}
+
+				applyOnUiThread(() ->
 				{
-					for(File selectedFolder : selectedFolders)
+					reselectEntries(entries);
+					int start = entryList.size();
+					entryList.addAll(entries);
+					entryAdapter.notifyItemRangeInserted(start, entries.size());
+
+					if(sectionIndex != null)
 					{
-						if(selectedFolder.equals(entryFile))
-						{
-							entry.setSelected(true);
-						}
+						sectionIndex.append(entries, start);
+						updateFastScroller();
 					}
-				}
-				else if(entryFile.isFile())
+				});
+			});
+		}
+
+		@Override
+		public void onPagedEntries(@NonNull EntryPager pager)
+		{
+			Context context = getContext();
+			if(context == null)return;
+
+			//Pages are created and formatted while scrolling, only a page at a time
+			formattingExecutor.execute(() -> applyOnUiThread(() ->
+			{
+				//Selection is kept in the selected lists, pages are restored from them when created
+				pager.setHeader(getNavigateBackEntry());
+				pager.setEntryDecorator(entry ->
 				{
-					for(File selectedFile : selectedFiles)
+					entry.setInfo(formatEntryInfo(context, entry));
+					reselectEntry(entry);
+				});
+				showEntryList(pager);
+
+				if(sectionIndex != null)
+				{
+					//Sections are built from the snapshot without creating entries
+					int offset = pager.size() - pager.getEntryCount();
+					sectionIndex.clear();
+					for(int i = 0; i < pager.getEntryCount(); i++)
 					{
-						if(selectedFile.equals(entryFile))
-						{
-							entry.setSelected(true);
-						}
+						sectionIndex.append(pager.getName(i), pager.getEntryType(i), offset + i);
 					}
+					updateFastScroller();
 				}
-			}
+			}));
+		}
+
+		@Override
+		public void onFolderInfo(@NonNull Entry entry, @NonNull FolderInfo folderInfo)
+		{
+			Context context = getContext();
+			if(context == null)return;
+
+			formattingExecutor.execute(() ->
+			{
+				String info = formatFolderInfo(context, folderInfo);
+				applyOnUiThread(() ->
+				{
+					if(selectionSummary != null)
+						selectionSummary.putFolderInfo(entry.getFile(), folderInfo);
+					entry.setFolderInfo(folderInfo);
+					entry.setInfo(info);
+					entryAdapter.notifyEntryChanged(entry);
+				});
+			});
+		}
+
+		@Override
+		public void onReset()
+		{
+			//Keep the navigate back entry, drop outdated snapshot entries
+			formattingExecutor.execute(() -> applyOnUiThread(() ->
+			{
+				List<Entry> newEntryList = new ArrayList<>();
+				Entry navigateBackEntry = getNavigateBackEntry();
+				if(navigateBackEntry != null)newEntryList.add(navigateBackEntry);
+				cancelTreeListings();
+
+				//Replaced instead of cleared, the previous list may be a read only pager
+				int count = entryList.size() - newEntryList.size();
+				entryList = newEntryList;
+				entryAdapter.setEntryList(newEntryList);
+				entryAdapter.notifyItemRangeRemoved(newEntryList.size(), count);
+
+				if(sectionIndex != null)
+				{
+					sectionIndex.clear();
+					updateFastScroller();
+				}
+			}));
+		}
+
+		@Override
+		public void onError(@NonNull Throwable throwable)
+		{
+			//Unreadable directories are shown without entries
+		}
+
+		@Override
+		public void onMetrics(@NonNull ListingMetrics listingMetrics)
+		{
+			if(pickerMetricsListener == null)return;
+
+			//Posted after all pending results, so the apply time is complete.
+			//Reported once the first frame showing the entries was drawn.
+			formattingExecutor.execute(() -> runOnUiThreadIfCurrent(() ->
+			{
+				completedMetrics = listingMetrics;
+				if(!firstFrameScheduled || firstFrameDrawn)reportMetrics();
+			}));
+		}
+
+		@Override
+		public void onComplete()
+		{
+			formattingExecutor.execute(() -> runOnUiThreadIfCurrent(() -> listingComplete = true));
+		}
+
+		/**
+		 * Applies listing results to the entry list and measures the time spent.
+		 */
+		private void applyOnUiThread(@NonNull Runnable runnable)
+		{
+			runOnUiThreadIfCurrent(() ->
+			{
+				long applyStart = System.nanoTime();
+				TraceCompat.beginSection("FileDirectoryPicker:apply");
+				runnable.run();
+				TraceCompat.endSection();
+				applyTime += System.nanoTime() - applyStart;
+
+				if(pickerMetricsListener != null && !firstFrameScheduled && structureRecycler != null)
+					scheduleFirstFrame();
+			});
+		}
 
-			entryAdapter.notifyDataSetChanged();
+		/**
+		 * Measures the time until the next frame, which is the first one showing listing results.
+		 */
+		@UiThread
+		private void scheduleFirstFrame()
+		{
+			firstFrameScheduled = true;
+			structureRecycler.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener()
+			{
+				@Override
+				public boolean onPreDraw()
+				{
+					if(structureRecycler != null)
+						structureRecycler.getViewTreeObserver().removeOnPreDrawListener(this);
+
+					firstFrameTime = System.nanoTime() - navigationStart;
+					firstFrameDrawn = true;
+					if(completedMetrics != null && subscription == currentListing)reportMetrics();
+					return true;
+				}
+			});
+		}
+
+		@UiThread
+		private void reportMetrics()
+		{
+			completedMetrics.addApplyTime(applyTime);
+			completedMetrics.setFirstFrameTime(firstFrameTime);
+			if(thumbnailLoader != null)
+				completedMetrics.setThumbnailCacheStatistics(thumbnailLoader.getCacheHits(), thumbnailLoader.getCacheRequests());
+			pickerMetricsListener.onListingMetrics(completedMetrics);
+		}
+
+		private void runOnUiThreadIfCurrent(@NonNull Runnable runnable)
+		{
+			if(getActivity() == null)return;
+			getActivity().runOnUiThread(() ->
+			{
+				if(subscription == currentListing)
+					runnable.run();
+			});
+		}
+	}
+
+	/**
+	 * Receives the children of an expanded folder in tree mode.
+	 * Batches are inserted below the folder, a reset removes the outdated children again.
+	 * Text is formatted on the formatting pool, results are applied in delivery order.
+	 */
+	private class TreeListingSubscriber implements DirectoryLister.Subscriber
+	{
+		private final Entry folder;
+		private final Executor formattingExecutor = new SerialExecutor(getExecutor(PickerExecutors.Pool.Formatting));
+		private DirectoryLister.Subscription subscription;
+
+		TreeListingSubscriber(@NonNull Entry folder)
+		{
+			this.folder = folder;
+		}
+
+		@Override
+		public void onSubscribe(@NonNull DirectoryLister.Subscription subscription)
+		{
+			this.subscription = subscription;
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onEntries(@NonNull List<Entry> entries)
+		{
+			Context context = getContext();
+			if(context == null)return;
+
+			formattingExecutor.execute(() ->
+			{
+				for(Entry entry : entries)
+				{
+					entry.setInfo(formatEntryInfo(context, entry));
+				}
+
+				runOnUiThreadIfExpanded(() ->
+				{
+					reselectEntries(entries);
+					entryAdapter.insertChildren(folder, entries);
+				});
+			});
+		}
+
+		@Override
+		public void onFolderInfo(@NonNull Entry entry, @NonNull FolderInfo folderInfo)
+		{
+			Context context = getContext();
+			if(context == null)return;
+
+			formattingExecutor.execute(() ->
+			{
+				String info = formatFolderInfo(context, folderInfo);
+				runOnUiThreadIfExpanded(() ->
+				{
+					if(selectionSummary != null)
+						selectionSummary.putFolderInfo(entry.getFile(), folderInfo);
+					entry.setFolderInfo(folderInfo);
+					entry.setInfo(info);
+					entryAdapter.notifyEntryChanged(entry);
+				});
+			});
+		}
+
+		@Override
+		public void onReset()
+		{
+			formattingExecutor.execute(() -> runOnUiThreadIfExpanded(() ->
+			{
+				for(Entry descendant : entryAdapter.removeChildren(folder))
+				{
+					if(descendant.isExpanded())cancelTreeListing(descendant);
+				}
+			}));
+		}
+
+		@Override
+		public void onError(@NonNull Throwable throwable)
+		{
+			//Unreadable folders are expanded without children
+		}
+
+		@Override
+		public void onComplete()
+		{
+		}
+
+		private void runOnUiThreadIfExpanded(@NonNull Runnable runnable)
+		{
+			if(getActivity() == null)return;
+			getActivity().runOnUiThread(() ->
+			{
+				if(treeListings.get(folder) == subscription)
+					runnable.run();
+			});
 		}
 	}
 
@@ -871,7 +2110,7 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		 * File : Represents a file
 		 * Folder : Represents a folder
 		 */
-		enum EntryType
+		public enum EntryType
 		{
 			None,
 			File,
@@ -883,6 +2122,13 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		private String info;
 		private boolean selected = false;
 		private File file;
+		private long size;
+		private long lastModified;
+		private boolean empty;
+		private FolderInfo folderInfo;
+		//Tree mode only
+		private int depth;
+		private boolean expanded;
 
 		public EntryType getEntryType()
 		{
@@ -933,6 +2179,73 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		{
 			this.selected = selected;
 		}
+
+		public long getSize()
+		{
+			return size;
+		}
+
+		public void setSize(long size)
+		{
+			this.size = size;
+		}
+
+		public long getLastModified()
+		{
+			return lastModified;
+		}
+
+		public void setLastModified(long lastModified)
+		{
+			this.lastModified = lastModified;
+		}
+
+		public boolean isEmpty()
+		{
+			return empty;
+		}
+
+		/**
+		 * @return Crawled size and file count of a folder, null if not crawled
+		 */
+		@Nullable
+		public FolderInfo getFolderInfo()
+		{
+			return folderInfo;
+		}
+
+		public void setFolderInfo(@Nullable FolderInfo folderInfo)
+		{
+			this.folderInfo = folderInfo;
+		}
+
+		public void setEmpty(boolean empty)
+		{
+			this.empty = empty;
+		}
+
+		/**
+		 * @return Nesting level below the current root folder in tree mode, 0 otherwise
+		 */
+		public int getDepth()
+		{
+			return depth;
+		}
+
+		public void setDepth(int depth)
+		{
+			this.depth = depth;
+		}
+
+		public boolean isExpanded()
+		{
+			return expanded;
+		}
+
+		public void setExpanded(boolean expanded)
+		{
+			this.expanded = expanded;
+		}
 	}
 
 	/**
@@ -952,18 +2265,42 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 		private boolean singleFolderMode = false;
 		private boolean showHidden = false;
 		private boolean showEmptyFolders = false;
+		private boolean cacheListings = false;
+		private boolean expandSelectedFolders = false;
+		private boolean showSelectionSize = false;
 		private String[] fileEndingFilter;
+		private String[] mimeTypeFilter;
+		private long minSize = 0;
+		private long maxSize = Long.MAX_VALUE;
+		private long minLastModified = Long.MIN_VALUE;
+		private long maxLastModified = Long.MAX_VALUE;
 
 		//Appearance
 		private String customTitle;
 		private boolean showAnimation = true;
 		private int animationStyle = R.style.DialogAnimation;
 		private boolean showDirectoryInfo = false;
+		private int largestFiles = 0;
+		private boolean showThumbnails = false;
+		private boolean gridMode = false;
+		private boolean fastScroll = false;
+		private int pagingThreshold = 0;
+		private boolean treeMode = false;
 		private CustomTheme customTheme;
 
 		//Listeners
 		private PickerResultListener pickerResultListener;
+		private PickerStreamResultListener pickerStreamResultListener;
+		private PickerDocumentResultListener pickerDocumentResultListener;
 		private PickerErrorListener pickerErrorListener;
+		private PickerMetricsListener pickerMetricsListener;
+
+		//Storage
+		private Uri documentTree;
+		private File rootDirectory;
+
+		//Threading
+		private PickerExecutor pickerExecutor;
 
 		public Builder(){}
 
@@ -1008,30 +2345,118 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 			return this;
 		}
 
+		/**
+		 * Shows folders without children.
+		 * Folders which can not be read, e.g. document folders whose query fails, count as empty.
+		 */
 		public Builder showEmptyFolders(boolean show)
 		{
 			this.showEmptyFolders = show;
 			return this;
 		}
 
+		public Builder cacheListings(boolean enabled)
+		{
+			this.cacheListings = enabled;
+			return this;
+		}
+
+		public Builder expandSelectedFolders(boolean expand)
+		{
+			this.expandSelectedFolders = expand;
+			return this;
+		}
+
+		public Builder showSelectionSize(boolean show)
+		{
+			this.showSelectionSize = show;
+			return this;
+		}
+
 		public Builder withResultListener(@NonNull PickerResultListener pickerResultListener)
 		{
 			this.pickerResultListener = pickerResultListener;
 			return this;
 		}
 
+		public Builder withStreamResultListener(@NonNull PickerStreamResultListener pickerStreamResultListener)
+		{
+			this.pickerStreamResultListener = pickerStreamResultListener;
+			return this;
+		}
+
+		public Builder withDocumentResultListener(@NonNull PickerDocumentResultListener pickerDocumentResultListener)
+		{
+			this.pickerDocumentResultListener = pickerDocumentResultListener;
+			return this;
+		}
+
+		@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+		public Builder documentTree(@NonNull Uri treeUri)
+		{
+			this.documentTree = treeUri;
+			return this;
+		}
+
+		/**
+		 * Shows the given directory as root instead of the shared storage.
+		 * No permission is requested, the directory must be readable by the app.
+		 */
+		public Builder rootDirectory(@NonNull File rootDirectory)
+		{
+			this.rootDirectory = rootDirectory;
+			return this;
+		}
+
 		public Builder withErrorListener(@NonNull PickerErrorListener pickerErrorListener)
 		{
 			this.pickerErrorListener = pickerErrorListener;
 			return this;
 		}
 
+		/**
+		 * Receives timings and cache hit rates of every folder listing, e.g. for telemetry.
+		 */
+		public Builder withMetricsListener(@NonNull PickerMetricsListener pickerMetricsListener)
+		{
+			this.pickerMetricsListener = pickerMetricsListener;
+			return this;
+		}
+
+		public Builder withExecutor(@NonNull PickerExecutor pickerExecutor)
+		{
+			this.pickerExecutor = pickerExecutor;
+			return this;
+		}
+
 		public Builder filterFileEndings(@NonNull String... fileEndingFilter)
 		{
 			this.fileEndingFilter = fileEndingFilter;
 			return this;
 		}
 
+		public Builder filterMimeTypes(@NonNull String... mimeTypeFilter)
+		{
+			this.mimeTypeFilter = mimeTypeFilter;
+			return this;
+		}
+
+		public Builder filterSize(long minBytes, long maxBytes)
+		{
+			if(minBytes < 0 || minBytes > maxBytes)throw new IllegalArgumentException("Invalid size range");
+			this.minSize = minBytes;
+			this.maxSize = maxBytes;
+			return this;
+		}
+
+		public Builder filterLastModified(long fromMillis, long toMillis)
+		{
+			if(fromMillis > toMillis)throw new IllegalArgumentException("Invalid date range");
+			this.minLastModified = fromMillis;
+			this.maxLastModified = toMillis;
+			return this;
+		}
+
 		public Builder customTitle(@NonNull String title)
 		{
 			this.customTitle = title;
@@ -1056,6 +2481,44 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 			return this;
 		}
 
+		public Builder showLargestFiles(int count)
+		{
+			if(count < 0)throw new IllegalArgumentException("Largest file count must not be negative");
+			this.largestFiles = count;
+			return this;
+		}
+
+		public Builder showThumbnails(boolean show)
+		{
+			this.showThumbnails = show;
+			return this;
+		}
+
+		public Builder gridMode(boolean grid)
+		{
+			this.gridMode = grid;
+			return this;
+		}
+
+		public Builder fastScroll(boolean fastScroll)
+		{
+			this.fastScroll = fastScroll;
+			return this;
+		}
+
+		public Builder pagingThreshold(int pagingThreshold)
+		{
+			if(pagingThreshold < 0)throw new IllegalArgumentException("Paging threshold must not be negative");
+			this.pagingThreshold = pagingThreshold;
+			return this;
+		}
+
+		public Builder treeMode(boolean tree)
+		{
+			this.treeMode = tree;
+			return this;
+		}
+
 		public Builder customTheme(@NonNull CustomTheme customTheme)
 		{
 			this.customTheme = customTheme;
@@ -1076,6 +2539,9 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 
 			bundle.putBoolean("showHidden", showHidden);
 			bundle.putBoolean("showEmptyFolders", showEmptyFolders);
+			bundle.putBoolean("cacheListings", cacheListings);
+			bundle.putBoolean("expandSelectedFolders", expandSelectedFolders);
+			bundle.putBoolean("showSelectionSize", showSelectionSize);
 
 			if(customTitle != null)
 				bundle.putString("customTitle", customTitle);
@@ -1083,17 +2549,46 @@ public class FileDirectoryPickerDialog extends DialogFragment implements EntryAd
 			bundle.putBoolean("showAnimation", showAnimation);
 			bundle.putInt("animationStyle", animationStyle);
 			bundle.putBoolean("showDirectoryInfo", showDirectoryInfo);
+			bundle.putInt("largestFiles", largestFiles);
+			bundle.putBoolean("showThumbnails", showThumbnails);
+			bundle.putBoolean("gridMode", gridMode);
+			bundle.putBoolean("fastScroll", fastScroll);
+			bundle.putInt("pagingThreshold", pagingThreshold);
+			bundle.putBoolean("treeMode", treeMode);
 			if(customTheme != null)
 				bundle.putSerializable("customTheme", customTheme);
 
 			if(pickerResultListener != null)
 				bundle.putParcelable("pickerResultListener", pickerResultListener);
 
+			if(pickerStreamResultListener != null)
+				bundle.putParcelable("pickerStreamResultListener", pickerStreamResultListener);
+
+			if(pickerDocumentResultListener != null)
+				bundle.putParcelable("pickerDocumentResultListener", pickerDocumentResultListener);
+
 			if(pickerErrorListener != null)
 				bundle.putParcelable("pickerErrorListener", pickerErrorListener);
 
+			if(pickerMetricsListener != null)
+				bundle.putParcelable("pickerMetricsListener", pickerMetricsListener);
+
+			if(pickerExecutor != null)
+				bundle.putParcelable("pickerExecutor", pickerExecutor);
+
 			if(fileEndingFilter != null)
 				bundle.putStringArray("fileEndingFilter", fileEndingFilter);
+			if(mimeTypeFilter != null)
+				bundle.putStringArray("mimeTypeFilter", mimeTypeFilter);
+			bundle.putLong("minSize", minSize);
+			bundle.putLong("maxSize", maxSize);
+			bundle.putLong("minLastModified", minLastModified);
+			bundle.putLong("maxLastModified", maxLastModified);
+
+			if(documentTree != null)
+				bundle.putParcelable("documentTree", documentTree);
+			if(rootDirectory != null)
+				bundle.putString("rootDirectory", rootDirectory.getAbsolutePath());
 
 			return bundle;
 		}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.os.Build;
+import android.os.FileObserver;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local file system storage backed by java.io.File.
+ *
+ * @author Philipp Kutsch
+ */
+public final class FileStorageBackend implements StorageBackend
+{
+	private static final int WATCH_EVENTS = FileObserver.CREATE | FileObserver.DELETE
+			| FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE;
+
+	@NonNull
+	@Override
+	public List<Attributes> list(@NonNull File directory) throws IOException
+	{
+		if(!directory.canRead())
+			throw new IOException("Directory is not readable: " + directory.getAbsolutePath());
+
+		File[] children = directory.listFiles();
+		if(children == null)
+			throw new IOException("Failed to list directory: " + directory.getAbsolutePath());
+
+		List<Attributes> attributes = new ArrayList<>(children.length);
+		for(File child : children)
+		{
+			Attributes childAttributes = stat(child);
+			if(childAttributes != null)attributes.add(childAttributes);
+		}
+		return attributes;
+	}
+
+	@Nullable
+	@Override
+	public Attributes stat(@NonNull File file)
+	{
+		if(!file.canRead())return null;
+
+		if(file.isDirectory())
+			return Attributes.directory(file.getName(), file.isHidden(), file.lastModified());
+		else if(file.isFile())
+			return Attributes.file(file.getName(), file.isHidden(), file.length(), file.lastModified());
+		return null;
+	}
+
+	@Override
+	public boolean isEmpty(@NonNull File directory)
+	{
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)return probeEmpty(directory);
+
+		//Older platforms can only read all names
+		String[] children = directory.list();
+		return children == null || children.length == 0;
+	}
+
+	/**
+	 * Returns if the directory has no children.
+	 * Stops reading after the first child instead of reading all names.
+	 *
+	 * @param directory Directory
+	 * @return Directory is empty or not readable
+	 */
+	@RequiresApi(api = Build.VERSION_CODES.O)
+	static boolean probeEmpty(@NonNull File directory)
+	{
+		try(DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory.toPath()))
+		{
+			return !directoryStream.iterator().hasNext();
+		}
+		catch(IOException | SecurityException e)
+		{
+			return true;
+		}
+	}
+
+	@Override
+	public int readHeader(@NonNull File file, @NonNull byte[] buffer) throws IOException
+	{
+		try(InputStream inputStream = new FileInputStream(file))
+		{
+			return FileUtils.readFully(inputStream, buffer);
+		}
+	}
+
+	@NonNull
+	@Override
+	public Closeable watch(@NonNull File directory, @NonNull WatchListener listener)
+	{
+		FileObserver fileObserver = new FileObserver(directory.getAbsolutePath(), WATCH_EVENTS)
+		{
+			@Override
+			public void onEvent(int event, @Nullable String path)
+			{
+				listener.onChanged(directory);
+			}
+		};
+		fileObserver.startWatching();
+		return fileObserver::stopWatching;
+	}
+}
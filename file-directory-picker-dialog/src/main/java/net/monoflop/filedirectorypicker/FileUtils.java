@@ -16,15 +16,11 @@
 
 package net.monoflop.filedirectorypicker;
 
-import android.content.Context;
-import android.os.storage.StorageManager;
-
 import androidx.annotation.NonNull;
 
 import java.io.File;
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Locale;
 
 @SuppressWarnings({"WeakerAccess", "unused"})
@@ -51,6 +47,26 @@ final class FileUtils
 		return String.format(locale, "%.1f %sB", bytes / Math.pow(unit, exp), pre);
 	}
 
+	/**
+	 * Reads from the stream until the buffer is full or the stream ends.
+	 *
+	 * @param inputStream Stream
+	 * @param buffer Destination, filled from the start
+	 * @return Number of bytes read
+	 * @throws IOException If reading fails
+	 */
+	static int readFully(@NonNull InputStream inputStream, @NonNull byte[] buffer) throws IOException
+	{
+		int length = 0;
+		while(length < buffer.length)
+		{
+			int read = inputStream.read(buffer, length, buffer.length - length);
+			if(read == -1)break;
+			length += read;
+		}
+		return length;
+	}
+
 	/**
 	 * Returns if the external storage is mounted.
 	 *
@@ -85,107 +101,4 @@ final class FileUtils
 		}
 		return size;
 	}
-
-
-	/**
-	 * Recursive calculate the total size and count of all child files and folders.
-	 *
-	 * @param folder Root folder.
-	 * @return Size of the folder and number of child files and folders.
-	 */
-	static FolderInfo getFolderInfo(@NonNull File folder)
-	{
-		long size = 0;
-		long fileCount = 0;
-
-		File[] files = folder.listFiles();
-
-		for (File file : files)
-		{
-			if (file.isFile())
-			{
-				size += file.length();
-				fileCount++;
-			} else
-			{
-				FolderInfo folderInfo = getFolderInfo(file);
-				size += folderInfo.getSize();
-				fileCount += folderInfo.getFileCount();
-			}
-		}
-
-		return new FolderInfo(size, fileCount);
-	}
-
-	/**
-	 * Class holds size and number of child files and folders.
-	 */
-	static class FolderInfo
-	{
-		private long size;
-		private long fileCount;
-
-		public FolderInfo(long size, long fileCount)
-		{
-			this.size = size;
-			this.fileCount = fileCount;
-		}
-
-		public long getSize()
-		{
-			return size;
-		}
-
-		public void setSize(long size)
-		{
-			this.size = size;
-		}
-
-		public long getFileCount()
-		{
-			return fileCount;
-		}
-
-		public void setFileCount(long fileCount)
-		{
-			this.fileCount = fileCount;
-		}
-	}
-
-	/**
-	 * Get SDCard path.
-	 * By https://gist.github.com/PauloLuan/4bcecc086095bce28e22#gistcomment-2591001
-	 * @param context Context
-	 * @return Path of SDCard root directory
-	 */
-	//@TODO !!!!!!!!!!
-	public static String getSDCardPath(@NonNull Context context)
-	{
-		StorageManager mStorageManager = (StorageManager) context.getSystemService(Context.STORAGE_SERVICE);
-		Class<?> storageVolumeClazz;
-		try
-		{
-			storageVolumeClazz = Class.forName("android.os.storage.StorageVolume");
-			Method getVolumeList = mStorageManager.getClass().getMethod("getVolumeList");
-			Method getPath = storageVolumeClazz.getMethod("getPath");
-			Method isRemovable = storageVolumeClazz.getMethod("isRemovable");
-			Object result = getVolumeList.invoke(mStorageManager);
-			final int length = Array.getLength(result);
-			for (int i = 0; i < length; i++)
-			{
-				Object storageVolumeElement = Array.get(result, i);
-				String path = (String) getPath.invoke(storageVolumeElement);
-				boolean removable = (Boolean) isRemovable.invoke(storageVolumeElement);
-				if(removable)
-				{
-					return path;
-				}
-			}
-		}
-		catch (ClassNotFoundException | InvocationTargetException | NoSuchMethodException | IllegalAccessException e)
-		{
-			e.printStackTrace();
-		}
-		return null;
-	}
 }
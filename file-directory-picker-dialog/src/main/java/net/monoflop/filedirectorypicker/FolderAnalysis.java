@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Largest files and size per file extension of a crawled folder.
+ * Collected while crawling, no additional listings are needed.
+ *
+ * @author Philipp Kutsch
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class FolderAnalysis
+{
+	private final List<LargeFile> largestFiles;
+	private final Map<String, FolderInfo> extensionStatistics;
+
+	private FolderAnalysis(@NonNull List<LargeFile> largestFiles, @NonNull Map<String, FolderInfo> extensionStatistics)
+	{
+		this.largestFiles = Collections.unmodifiableList(largestFiles);
+		this.extensionStatistics = Collections.unmodifiableMap(extensionStatistics);
+	}
+
+	/**
+	 * @return Largest files below the folder, largest first
+	 */
+	@NonNull
+	public List<LargeFile> getLargestFiles()
+	{
+		return largestFiles;
+	}
+
+	/**
+	 * Returns the summed size and file count per lower case file extension.
+	 * Files without extension are listed under an empty string.
+	 *
+	 * @return Extension statistics, largest total size first
+	 */
+	@NonNull
+	public Map<String, FolderInfo> getExtensionStatistics()
+	{
+		return extensionStatistics;
+	}
+
+	/**
+	 * File path and size.
+	 */
+	public static final class LargeFile
+	{
+		private final File file;
+		private final long size;
+
+		LargeFile(@NonNull File file, long size)
+		{
+			this.file = file;
+			this.size = size;
+		}
+
+		@NonNull
+		public File getFile()
+		{
+			return file;
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+	}
+
+	/**
+	 * Collects the statistics of one crawl.
+	 * Keeps a min heap of the largest files, so memory stays bounded by the requested count.
+	 */
+	static final class Collector
+	{
+		private final int largestFileCount;
+		private final PriorityQueue<LargeFile> largestFiles;
+		private final Map<String, FolderInfo> extensionStatistics = new HashMap<>();
+
+		/**
+		 * @param largestFileCount Number of largest files to keep
+		 */
+		Collector(int largestFileCount)
+		{
+			if(largestFileCount <= 0)throw new IllegalArgumentException("Largest file count must be positive");
+			this.largestFileCount = largestFileCount;
+			this.largestFiles = new PriorityQueue<>(largestFileCount, (o1, o2) -> Long.compare(o1.size, o2.size));
+		}
+
+		void addFile(@NonNull File directory, @NonNull String name, long size)
+		{
+			//Only create the path if the file makes it into the heap
+			if(largestFiles.size() < largestFileCount)largestFiles.add(new LargeFile(new File(directory, name), size));
+			else if(size > largestFiles.peek().size)
+			{
+				largestFiles.poll();
+				largestFiles.add(new LargeFile(new File(directory, name), size));
+			}
+
+			String extension = getExtension(name);
+			FolderInfo statistics = extensionStatistics.get(extension);
+			if(statistics == null)extensionStatistics.put(extension, new FolderInfo(size, 1));
+			else
+			{
+				statistics.setSize(statistics.getSize() + size);
+				statistics.setFileCount(statistics.getFileCount() + 1);
+			}
+		}
+
+		@NonNull
+		FolderAnalysis build()
+		{
+			List<LargeFile> files = new ArrayList<>(largestFiles);
+			Collections.sort(files, (o1, o2) -> Long.compare(o2.size, o1.size));
+
+			List<Map.Entry<String, FolderInfo>> extensions = new ArrayList<>(extensionStatistics.entrySet());
+			Collections.sort(extensions, (o1, o2) -> Long.compare(o2.getValue().getSize(), o1.getValue().getSize()));
+			Map<String, FolderInfo> sortedStatistics = new LinkedHashMap<>();
+			for(Map.Entry<String, FolderInfo> extension : extensions)
+			{
+				sortedStatistics.put(extension.getKey(), extension.getValue());
+			}
+			return new FolderAnalysis(files, sortedStatistics);
+		}
+
+		@NonNull
+		private static String getExtension(@NonNull String name)
+		{
+			int dot = name.lastIndexOf('.');
+			if(dot <= 0 || dot == name.length() - 1)return "";
+			return name.substring(dot + 1).toLowerCase(Locale.US);
+		}
+	}
+}
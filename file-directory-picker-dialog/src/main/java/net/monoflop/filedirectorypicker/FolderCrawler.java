@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Recursive folder size and file count calculation.
+ * Plain Java on top of a {@link StorageBackend}, so crawls can run against any storage.
+ *
+ * @author Philipp Kutsch
+ */
+final class FolderCrawler
+{
+	private FolderCrawler()
+	{
+	}
+
+	/**
+	 * Recursive calculate the total size and count of all child files and folders.
+	 * The crawl stops early if the calling thread gets interrupted.
+	 * Folders which can not be listed are counted as empty.
+	 *
+	 * @param storageBackend Storage containing the folder
+	 * @param folder Root folder.
+	 * @return Size of the folder and number of child files and folders.
+	 */
+	@NonNull
+	@WorkerThread
+	static FolderInfo getFolderInfo(@NonNull StorageBackend storageBackend, @NonNull File folder)
+	{
+		return getFolderInfo(storageBackend, folder, 0);
+	}
+
+	/**
+	 * Recursive calculate the total size and count of all child files and folders.
+	 * Optionally collects the largest files and the size per file extension during the same walk.
+	 *
+	 * @param storageBackend Storage containing the folder
+	 * @param folder Root folder.
+	 * @param largestFileCount Number of largest files to collect, 0 disables the analysis
+	 * @return Size of the folder and number of child files and folders, including the analysis if requested.
+	 */
+	@NonNull
+	@WorkerThread
+	static FolderInfo getFolderInfo(@NonNull StorageBackend storageBackend, @NonNull File folder, int largestFileCount)
+	{
+		FolderAnalysis.Collector collector = largestFileCount > 0 ? new FolderAnalysis.Collector(largestFileCount) : null;
+		FolderInfo folderInfo = crawl(storageBackend, folder, collector);
+		if(collector != null)folderInfo.setAnalysis(collector.build());
+		return folderInfo;
+	}
+
+	@NonNull
+	@WorkerThread
+	private static FolderInfo crawl(@NonNull StorageBackend storageBackend, @NonNull File folder,
+	                                @Nullable FolderAnalysis.Collector collector)
+	{
+		long size = 0;
+		long fileCount = 0;
+
+		List<StorageBackend.Attributes> children;
+		try
+		{
+			children = storageBackend.list(folder);
+		}
+		catch(IOException e)
+		{
+			return new FolderInfo(size, fileCount);
+		}
+
+		for(StorageBackend.Attributes child : children)
+		{
+			//Stop crawling if the task got cancelled
+			if(Thread.currentThread().isInterrupted())break;
+
+			if(child.isFile())
+			{
+				size += child.getSize();
+				fileCount++;
+				if(collector != null)collector.addFile(folder, child.getName(), child.getSize());
+			}
+			else
+			{
+				FolderInfo folderInfo = crawl(storageBackend, new File(folder, child.getName()), collector);
+				size += folderInfo.getSize();
+				fileCount += folderInfo.getFileCount();
+			}
+		}
+
+		return new FolderInfo(size, fileCount);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Class holds size and number of child files and folders.
+ *
+ * @author Philipp Kutsch
+ */
+public class FolderInfo
+{
+	private long size;
+	private long fileCount;
+	private FolderAnalysis analysis;
+
+	public FolderInfo(long size, long fileCount)
+	{
+		this.size = size;
+		this.fileCount = fileCount;
+	}
+
+	public long getSize()
+	{
+		return size;
+	}
+
+	public void setSize(long size)
+	{
+		this.size = size;
+	}
+
+	public long getFileCount()
+	{
+		return fileCount;
+	}
+
+	public void setFileCount(long fileCount)
+	{
+		this.fileCount = fileCount;
+	}
+
+	/**
+	 * @return Largest files and extension statistics if requested for the crawl, null otherwise
+	 */
+	@Nullable
+	public FolderAnalysis getAnalysis()
+	{
+		return analysis;
+	}
+
+	void setAnalysis(@Nullable FolderAnalysis analysis)
+	{
+		this.analysis = analysis;
+	}
+}
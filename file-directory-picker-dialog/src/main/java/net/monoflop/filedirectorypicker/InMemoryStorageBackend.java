@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Deterministic storage kept in memory.
+ * Intended to run and measure the listing engine on the JVM
+ * against synthetic trees of any size without touching a disk.
+ *
+ * @author Philipp Kutsch
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class InMemoryStorageBackend implements StorageBackend
+{
+	//Path -> node, guarded by this
+	private final Map<String, Node> nodes = new HashMap<>();
+	private final Map<String, List<WatchListener>> watchListeners = new HashMap<>();
+
+	/**
+	 * Creates a backend containing the root directory.
+	 *
+	 * @param root Root directory
+	 */
+	public InMemoryStorageBackend(@NonNull File root)
+	{
+		nodes.put(root.getAbsolutePath(), new Node(Attributes.directory(root.getName(), false, 0)));
+	}
+
+	/**
+	 * Adds a directory. Missing parent directories are created.
+	 *
+	 * @param directory Directory
+	 * @param lastModified Last modified time in milliseconds
+	 */
+	public void addDirectory(@NonNull File directory, long lastModified)
+	{
+		add(directory, Attributes.directory(directory.getName(), directory.getName().startsWith("."), lastModified));
+	}
+
+	/**
+	 * Adds a file. Missing parent directories are created.
+	 *
+	 * @param file File
+	 * @param size Size in bytes
+	 * @param lastModified Last modified time in milliseconds
+	 */
+	public void addFile(@NonNull File file, long size, long lastModified)
+	{
+		add(file, Attributes.file(file.getName(), file.getName().startsWith("."), size, lastModified));
+	}
+
+	/**
+	 * Removes a file or directory including all children.
+	 *
+	 * @param file Path
+	 */
+	public void remove(@NonNull File file)
+	{
+		synchronized(this)
+		{
+			Node node = nodes.remove(file.getAbsolutePath());
+			if(node == null)return;
+			removeChildren(file, node);
+
+			Node parent = nodes.get(parentPath(file));
+			if(parent != null)parent.children.remove(file.getName());
+		}
+		notifyChanged(file.getParentFile());
+	}
+
+	@NonNull
+	@Override
+	public synchronized List<Attributes> list(@NonNull File directory) throws IOException
+	{
+		Node node = nodes.get(directory.getAbsolutePath());
+		if(node == null || !node.attributes.isDirectory())
+			throw new IOException("Directory does not exist: " + directory.getAbsolutePath());
+		return new ArrayList<>(node.children.values());
+	}
+
+	@Nullable
+	@Override
+	public synchronized Attributes stat(@NonNull File file)
+	{
+		Node node = nodes.get(file.getAbsolutePath());
+		return node != null ? node.attributes : null;
+	}
+
+	@Override
+	public synchronized boolean isEmpty(@NonNull File directory)
+	{
+		Node node = nodes.get(directory.getAbsolutePath());
+		return node == null || node.children.isEmpty();
+	}
+
+	@NonNull
+	@Override
+	public Closeable watch(@NonNull File directory, @NonNull WatchListener listener)
+	{
+		String path = directory.getAbsolutePath();
+		synchronized(this)
+		{
+			List<WatchListener> listeners = watchListeners.get(path);
+			if(listeners == null)
+			{
+				listeners = new CopyOnWriteArrayList<>();
+				watchListeners.put(path, listeners);
+			}
+			listeners.add(listener);
+		}
+
+		return () ->
+		{
+			synchronized(InMemoryStorageBackend.this)
+			{
+				List<WatchListener> listeners = watchListeners.get(path);
+				if(listeners != null)listeners.remove(listener);
+			}
+		};
+	}
+
+	private void add(@NonNull File file, @NonNull Attributes attributes)
+	{
+		File parent = file.getParentFile();
+		if(parent == null)throw new IllegalArgumentException("Path has no parent: " + file.getAbsolutePath());
+
+		synchronized(this)
+		{
+			Node parentNode = nodes.get(parent.getAbsolutePath());
+			if(parentNode == null)
+			{
+				addDirectory(parent, attributes.getLastModified());
+				parentNode = nodes.get(parent.getAbsolutePath());
+			}
+			if(!parentNode.attributes.isDirectory())
+				throw new IllegalArgumentException("Parent is not a directory: " + parent.getAbsolutePath());
+
+			Node existing = nodes.get(file.getAbsolutePath());
+			Node node = new Node(attributes);
+			if(existing != null && attributes.isDirectory())node.children.putAll(existing.children);
+
+			nodes.put(file.getAbsolutePath(), node);
+			parentNode.children.put(file.getName(), attributes);
+		}
+		notifyChanged(parent);
+	}
+
+	private void removeChildren(@NonNull File directory, @NonNull Node node)
+	{
+		for(String childName : node.children.keySet())
+		{
+			File child = new File(directory, childName);
+			Node childNode = nodes.remove(child.getAbsolutePath());
+			if(childNode != null)removeChildren(child, childNode);
+		}
+	}
+
+	private void notifyChanged(@Nullable File directory)
+	{
+		if(directory == null)return;
+
+		List<WatchListener> listeners;
+		synchronized(this)
+		{
+			listeners = watchListeners.get(directory.getAbsolutePath());
+		}
+		if(listeners == null)return;
+
+		for(WatchListener listener : listeners)
+		{
+			listener.onChanged(directory);
+		}
+	}
+
+	@NonNull
+	private static String parentPath(@NonNull File file)
+	{
+		File parent = file.getParentFile();
+		return parent != null ? parent.getAbsolutePath() : "";
+	}
+
+	/**
+	 * Directory or file node.
+	 */
+	private static class Node
+	{
+		private final Attributes attributes;
+		private final Map<String, Attributes> children = new LinkedHashMap<>();
+
+		Node(@NonNull Attributes attributes)
+		{
+			this.attributes = attributes;
+		}
+	}
+}
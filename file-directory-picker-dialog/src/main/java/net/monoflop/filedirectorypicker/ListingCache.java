@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory cache of listing snapshots, kept separately for every storage volume.
+ * Each volume holds its most recently used snapshots, so browsing a large
+ * volume does not evict the cached listings of the other volumes.
+ * Cached snapshots are published immediately and revalidated by the lister.
+ *
+ * @author Philipp Kutsch
+ */
+final class ListingCache
+{
+	//Bucket of directories outside of all known volumes
+	private static final String NO_VOLUME = "";
+
+	private final int maxSnapshotsPerVolume;
+
+	//Guarded by this
+	private final Map<String, Map<String, ListingSnapshot>> volumeSnapshots = new HashMap<>();
+	private List<String> volumeRoots = Collections.emptyList();
+
+	/**
+	 * @param maxSnapshotsPerVolume Maximum number of cached directories per volume
+	 */
+	ListingCache(int maxSnapshotsPerVolume)
+	{
+		if(maxSnapshotsPerVolume <= 0)throw new IllegalArgumentException("Cache size must be positive");
+		this.maxSnapshotsPerVolume = maxSnapshotsPerVolume;
+	}
+
+	/**
+	 * Sets the currently mounted volumes.
+	 * Cached snapshots of volumes which are no longer mounted are dropped.
+	 *
+	 * @param roots Root directories of all mounted volumes
+	 */
+	synchronized void setVolumeRoots(@NonNull List<File> roots)
+	{
+		List<String> newVolumeRoots = new ArrayList<>(roots.size());
+		for(File root : roots)
+		{
+			newVolumeRoots.add(root.getAbsolutePath());
+		}
+		volumeRoots = newVolumeRoots;
+
+		Iterator<String> iterator = volumeSnapshots.keySet().iterator();
+		while(iterator.hasNext())
+		{
+			String volumeRoot = iterator.next();
+			if(!volumeRoot.equals(NO_VOLUME) && !volumeRoots.contains(volumeRoot))iterator.remove();
+		}
+	}
+
+	/**
+	 * @param directory Directory
+	 * @return Cached snapshot or null
+	 */
+	@Nullable
+	synchronized ListingSnapshot get(@NonNull File directory)
+	{
+		Map<String, ListingSnapshot> snapshots = volumeSnapshots.get(getVolumeRoot(directory));
+		if(snapshots == null)return null;
+		return snapshots.get(directory.getAbsolutePath());
+	}
+
+	/**
+	 * Caches the snapshot, evicting the least recently used snapshot of the same volume if full.
+	 *
+	 * @param snapshot Snapshot
+	 */
+	synchronized void put(@NonNull ListingSnapshot snapshot)
+	{
+		String volumeRoot = getVolumeRoot(snapshot.getDirectory());
+		Map<String, ListingSnapshot> snapshots = volumeSnapshots.get(volumeRoot);
+		if(snapshots == null)
+		{
+			snapshots = new LinkedHashMap<String, ListingSnapshot>(16, 0.75f, true)
+			{
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ListingSnapshot> eldest)
+				{
+					return size() > maxSnapshotsPerVolume;
+				}
+			};
+			volumeSnapshots.put(volumeRoot, snapshots);
+		}
+		snapshots.put(snapshot.getDirectory().getAbsolutePath(), snapshot);
+	}
+
+	/**
+	 * Returns the root of the innermost volume containing the directory.
+	 * Must be called while holding the lock.
+	 */
+	@NonNull
+	private String getVolumeRoot(@NonNull File directory)
+	{
+		String path = directory.getAbsolutePath();
+		String match = NO_VOLUME;
+		for(String volumeRoot : volumeRoots)
+		{
+			if((path.equals(volumeRoot) || path.startsWith(volumeRoot + File.separator))
+					&& volumeRoot.length() > match.length())
+				match = volumeRoot;
+		}
+		return match;
+	}
+}
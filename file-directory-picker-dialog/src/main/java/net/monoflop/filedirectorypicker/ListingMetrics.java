@@ -0,0 +1,333 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Timings and counters of a single directory listing.
+ *
+ * Durations are measured in nanoseconds. Listing, filter and sort times cover
+ * the stored snapshot and its revalidation. Crawl and queue values are only
+ * collected if folder info crawling is enabled.
+ * {@link #toJson()} emits all values in a stable format, e.g. for benchmark reports.
+ *
+ * @author Philipp Kutsch
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class ListingMetrics
+{
+	/**
+	 * Origin of the snapshot published before revalidation.
+	 */
+	public enum SnapshotSource
+	{
+		None, //Directory was listed without a previous snapshot
+		Memory, //Snapshot was found in the listing cache
+		Disk //Snapshot was read from the snapshot directory
+	}
+
+	private final File directory;
+	private SnapshotSource snapshotSource = SnapshotSource.None;
+	private long listTime;
+	private long filterTime;
+	private long sortTime;
+	private long applyTime;
+	private long firstFrameTime;
+	private long completeTime;
+	private int entryCount;
+	private int crawlCount;
+	private long totalCrawlTime;
+	private long maxCrawlTime;
+	private int maxCrawlQueueDepth;
+	private long listingCacheHits;
+	private long listingCacheRequests;
+	private long thumbnailCacheHits;
+	private long thumbnailCacheRequests;
+
+	ListingMetrics(@NonNull File directory)
+	{
+		this.directory = directory;
+	}
+
+	@NonNull
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	@NonNull
+	public synchronized SnapshotSource getSnapshotSource()
+	{
+		return snapshotSource;
+	}
+
+	/**
+	 * @return Time spent reading the directory from the storage backend
+	 */
+	public synchronized long getListTime()
+	{
+		return listTime;
+	}
+
+	/**
+	 * @return Time spent filtering snapshots
+	 */
+	public synchronized long getFilterTime()
+	{
+		return filterTime;
+	}
+
+	/**
+	 * @return Time spent sorting snapshots by name
+	 */
+	public synchronized long getSortTime()
+	{
+		return sortTime;
+	}
+
+	/**
+	 * @return Time spent on the ui thread applying entries to the list, 0 for headless listings
+	 */
+	public synchronized long getApplyTime()
+	{
+		return applyTime;
+	}
+
+	/**
+	 * Time from the start of the navigation until the first frame showing its entries was drawn.
+	 * The first listing of a dialog is measured from the creation of the dialog.
+	 *
+	 * @return First frame time, 0 for headless listings or if no entries were shown
+	 */
+	public synchronized long getFirstFrameTime()
+	{
+		return firstFrameTime;
+	}
+
+	/**
+	 * @return Time from the start of the listing until all entries and folder infos were delivered
+	 */
+	public synchronized long getCompleteTime()
+	{
+		return completeTime;
+	}
+
+	/**
+	 * @return Number of entries after filtering
+	 */
+	public synchronized int getEntryCount()
+	{
+		return entryCount;
+	}
+
+	/**
+	 * @return Entries listed, filtered and sorted per second
+	 */
+	public synchronized double getEntriesPerSecond()
+	{
+		long time = listTime + filterTime + sortTime;
+		if(time <= 0)return 0;
+		return entryCount * 1_000_000_000d / time;
+	}
+
+	/**
+	 * @return Number of crawled folders
+	 */
+	public synchronized int getCrawlCount()
+	{
+		return crawlCount;
+	}
+
+	public synchronized long getTotalCrawlTime()
+	{
+		return totalCrawlTime;
+	}
+
+	public synchronized long getMaxCrawlTime()
+	{
+		return maxCrawlTime;
+	}
+
+	/**
+	 * @return Highest number of crawls waiting or queued on the crawling executor when a crawl was started
+	 */
+	public synchronized int getMaxCrawlQueueDepth()
+	{
+		return maxCrawlQueueDepth;
+	}
+
+	/**
+	 * @return Previous snapshot lookups of the lister which found a snapshot, since the lister was built
+	 */
+	public synchronized long getListingCacheHits()
+	{
+		return listingCacheHits;
+	}
+
+	public synchronized long getListingCacheRequests()
+	{
+		return listingCacheRequests;
+	}
+
+	public synchronized double getListingCacheHitRate()
+	{
+		return listingCacheRequests > 0 ? (double) listingCacheHits / listingCacheRequests : 0;
+	}
+
+	/**
+	 * @return Thumbnails found in the memory cache, since the dialog was created. 0 for headless listings
+	 */
+	public synchronized long getThumbnailCacheHits()
+	{
+		return thumbnailCacheHits;
+	}
+
+	public synchronized long getThumbnailCacheRequests()
+	{
+		return thumbnailCacheRequests;
+	}
+
+	public synchronized double getThumbnailCacheHitRate()
+	{
+		return thumbnailCacheRequests > 0 ? (double) thumbnailCacheHits / thumbnailCacheRequests : 0;
+	}
+
+	synchronized void setSnapshotSource(@NonNull SnapshotSource snapshotSource)
+	{
+		this.snapshotSource = snapshotSource;
+	}
+
+	synchronized void addListTime(long time)
+	{
+		listTime += time;
+	}
+
+	synchronized void addFilterTime(long time)
+	{
+		filterTime += time;
+	}
+
+	synchronized void addSortTime(long time)
+	{
+		sortTime += time;
+	}
+
+	synchronized void addApplyTime(long time)
+	{
+		applyTime += time;
+	}
+
+	synchronized void setFirstFrameTime(long firstFrameTime)
+	{
+		this.firstFrameTime = firstFrameTime;
+	}
+
+	synchronized void setCompleteTime(long completeTime)
+	{
+		this.completeTime = completeTime;
+	}
+
+	synchronized void setEntryCount(int entryCount)
+	{
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * @param time Duration of a single folder crawl
+	 */
+	synchronized void addCrawl(long time)
+	{
+		crawlCount++;
+		totalCrawlTime += time;
+		maxCrawlTime = Math.max(maxCrawlTime, time);
+	}
+
+	synchronized void sampleCrawlQueueDepth(int queueDepth)
+	{
+		maxCrawlQueueDepth = Math.max(maxCrawlQueueDepth, queueDepth);
+	}
+
+	synchronized void setListingCacheStatistics(long hits, long requests)
+	{
+		this.listingCacheHits = hits;
+		this.listingCacheRequests = requests;
+	}
+
+	synchronized void setThumbnailCacheStatistics(long hits, long requests)
+	{
+		this.thumbnailCacheHits = hits;
+		this.thumbnailCacheRequests = requests;
+	}
+
+	/**
+	 * Durations are converted to microseconds.
+	 *
+	 * @return All values as json object
+	 */
+	@NonNull
+	public synchronized JSONObject toJson()
+	{
+		JSONObject jsonObject = new JSONObject();
+		try
+		{
+			jsonObject.put("directory", directory.getAbsolutePath());
+			jsonObject.put("snapshotSource", snapshotSource.name());
+			jsonObject.put("entryCount", entryCount);
+			jsonObject.put("listTimeUs", listTime / 1000);
+			jsonObject.put("filterTimeUs", filterTime / 1000);
+			jsonObject.put("sortTimeUs", sortTime / 1000);
+			jsonObject.put("applyTimeUs", applyTime / 1000);
+			jsonObject.put("firstFrameTimeUs", firstFrameTime / 1000);
+			jsonObject.put("completeTimeUs", completeTime / 1000);
+			jsonObject.put("entriesPerSecond", getEntriesPerSecond());
+			jsonObject.put("crawlCount", crawlCount);
+			jsonObject.put("totalCrawlTimeUs", totalCrawlTime / 1000);
+			jsonObject.put("maxCrawlTimeUs", maxCrawlTime / 1000);
+			jsonObject.put("maxCrawlQueueDepth", maxCrawlQueueDepth);
+			jsonObject.put("listingCacheHits", listingCacheHits);
+			jsonObject.put("listingCacheRequests", listingCacheRequests);
+			jsonObject.put("thumbnailCacheHits", thumbnailCacheHits);
+			jsonObject.put("thumbnailCacheRequests", thumbnailCacheRequests);
+		}
+		catch(JSONException e)
+		{
+			//Keys are never null and all numbers are finite
+			throw new IllegalStateException(e);
+		}
+		return jsonObject;
+	}
+
+	@NonNull
+	@Override
+	public synchronized String toString()
+	{
+		return String.format(Locale.US,
+				"ListingMetrics{directory=%s, source=%s, entries=%d, list=%dus, filter=%dus, sort=%dus, apply=%dus, " +
+						"firstFrame=%dus, complete=%dus, entriesPerSecond=%.0f, crawls=%d, crawlTime=%dus, " +
+						"maxCrawlTime=%dus, maxQueueDepth=%d, listingCacheHitRate=%.2f, thumbnailCacheHitRate=%.2f}",
+				directory, snapshotSource, entryCount, listTime / 1000, filterTime / 1000, sortTime / 1000,
+				applyTime / 1000, firstFrameTime / 1000, completeTime / 1000, getEntriesPerSecond(), crawlCount, totalCrawlTime / 1000, maxCrawlTime / 1000,
+				maxCrawlQueueDepth, getListingCacheHitRate(), getThumbnailCacheHitRate());
+	}
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.os.TraceCompat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Attribute snapshot of all readable children of a directory.
+ * Children are sorted by name, filtering is applied when entries are created.
+ *
+ * Snapshots can be stored in a compact binary format and read back
+ * by mapping the file into memory, which is much cheaper than
+ * reading the attributes of every child again.
+ *
+ * File format (big endian):
+ * int magic, short version, utf directory path, long directory last modified, int count,
+ * followed by count records of: byte flags, long size, long last modified, utf name.
+ * Strings are stored as unsigned short byte length followed by UTF-8 bytes.
+ *
+ * @author Philipp Kutsch
+ */
+final class ListingSnapshot
+{
+	static final int FLAG_DIRECTORY = 1;
+	static final int FLAG_FILE = 1 << 1;
+	static final int FLAG_HIDDEN = 1 << 2;
+	static final int FLAG_EMPTY = 1 << 3;
+
+	private static final int MAGIC = 0x46445053; //FDPS
+	private static final short VERSION = 1;
+	//Flags, size, last modified and name length of a record with an empty name
+	private static final int MIN_RECORD_SIZE = 1 + 8 + 8 + 2;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File directory;
+	private final long directoryLastModified;
+	private final String[] names;
+	private final byte[] flags;
+	private final long[] sizes;
+	private final long[] lastModified;
+	//MIME types detected by child index, kept in memory only
+	private volatile String[] mimeTypes;
+
+	private ListingSnapshot(@NonNull File directory, long directoryLastModified, @NonNull String[] names,
+	                        @NonNull byte[] flags, @NonNull long[] sizes, @NonNull long[] lastModified)
+	{
+		this.directory = directory;
+		this.directoryLastModified = directoryLastModified;
+		this.names = names;
+		this.flags = flags;
+		this.sizes = sizes;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Reads the attributes of all readable children of the directory.
+	 *
+	 * @param storageBackend Storage containing the directory
+	 * @param directory Directory
+	 * @return Snapshot sorted by name
+	 * @throws IOException If the directory can not be read
+	 */
+	@NonNull
+	@WorkerThread
+	static ListingSnapshot scan(@NonNull StorageBackend storageBackend, @NonNull File directory) throws IOException
+	{
+		return scan(storageBackend, directory, null);
+	}
+
+	/**
+	 * Reads the attributes of all readable children of the directory.
+	 *
+	 * @param storageBackend Storage containing the directory
+	 * @param directory Directory
+	 * @param listingMetrics Receives list and sort times, may be null
+	 * @return Snapshot sorted by name
+	 * @throws IOException If the directory can not be read
+	 */
+	@NonNull
+	@WorkerThread
+	static ListingSnapshot scan(@NonNull StorageBackend storageBackend, @NonNull File directory,
+	                            @Nullable ListingMetrics listingMetrics) throws IOException
+	{
+		Builder builder;
+		long listStart = System.nanoTime();
+		TraceCompat.beginSection("FileDirectoryPicker:list");
+		try
+		{
+			List<StorageBackend.Attributes> children = storageBackend.list(directory);
+			StorageBackend.Attributes directoryAttributes = storageBackend.stat(directory);
+
+			builder = new Builder(directory, directoryAttributes != null ? directoryAttributes.getLastModified() : 0);
+			for(StorageBackend.Attributes child : children)
+			{
+				int childFlags = 0;
+				if(child.isHidden())childFlags |= FLAG_HIDDEN;
+
+				if(child.isDirectory())
+				{
+					childFlags |= FLAG_DIRECTORY;
+					if(storageBackend.isEmpty(new File(directory, child.getName())))childFlags |= FLAG_EMPTY;
+				}
+				else childFlags |= FLAG_FILE;
+
+				builder.add(child.getName(), childFlags, child.getSize(), child.getLastModified());
+			}
+		}
+		finally
+		{
+			TraceCompat.endSection();
+		}
+
+		long sortStart = System.nanoTime();
+		TraceCompat.beginSection("FileDirectoryPicker:sort");
+		try
+		{
+			return builder.build();
+		}
+		finally
+		{
+			TraceCompat.endSection();
+			if(listingMetrics != null)
+			{
+				listingMetrics.addListTime(sortStart - listStart);
+				listingMetrics.addSortTime(System.nanoTime() - sortStart);
+			}
+		}
+	}
+
+	/**
+	 * Maps a stored snapshot into memory and decodes it.
+	 *
+	 * Snapshots stored before children of the directory were added, removed or renamed
+	 * are outdated and not read. Corrupt snapshots are deleted.
+	 *
+	 * @param snapshotFile Stored snapshot
+	 * @param directory Directory the snapshot is expected to describe
+	 * @param directoryLastModified Current last modified time of the directory
+	 * @return Snapshot or null if the file is missing, outdated or corrupt
+	 */
+	@Nullable
+	@WorkerThread
+	static ListingSnapshot read(@NonNull File snapshotFile, @NonNull File directory, long directoryLastModified)
+	{
+		if(!snapshotFile.isFile())return null;
+
+		try(RandomAccessFile randomAccessFile = new RandomAccessFile(snapshotFile, "r");
+		    FileChannel channel = randomAccessFile.getChannel())
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if(buffer.getInt() != MAGIC || buffer.getShort() != VERSION)return null;
+			if(!directory.getAbsolutePath().equals(readString(buffer)))return null;
+
+			if(buffer.getLong() != directoryLastModified)return null;
+
+			//Checked before allocating, a corrupt count must not exhaust the heap
+			int count = buffer.getInt();
+			if(count < 0 || count > buffer.remaining() / MIN_RECORD_SIZE)
+				throw new IOException("Invalid snapshot record count: " + count);
+
+			String[] names = new String[count];
+			byte[] flags = new byte[count];
+			long[] sizes = new long[count];
+			long[] lastModified = new long[count];
+
+			for(int i = 0; i < count; i++)
+			{
+				flags[i] = buffer.get();
+				sizes[i] = buffer.getLong();
+				lastModified[i] = buffer.getLong();
+				names[i] = readString(buffer);
+			}
+
+			return new ListingSnapshot(directory, directoryLastModified, names, flags, sizes, lastModified);
+		}
+		catch(IOException | BufferUnderflowException | IllegalArgumentException e)
+		{
+			//Corrupt snapshots are discarded, the directory is scanned again
+			//noinspection ResultOfMethodCallIgnored
+			snapshotFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the snapshot. The file is replaced atomically.
+	 *
+	 * @param snapshotFile Target file
+	 * @throws IOException If the snapshot can not be written
+	 */
+	@WorkerThread
+	void write(@NonNull File snapshotFile) throws IOException
+	{
+		File parent = snapshotFile.getParentFile();
+		if(parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Failed to create snapshot directory: " + parent.getAbsolutePath());
+
+		File temporaryFile = new File(snapshotFile.getAbsolutePath() + ".tmp");
+		try(DataOutputStream outputStream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporaryFile))))
+		{
+			outputStream.writeInt(MAGIC);
+			outputStream.writeShort(VERSION);
+			writeString(outputStream, directory.getAbsolutePath());
+			outputStream.writeLong(directoryLastModified);
+			outputStream.writeInt(names.length);
+
+			for(int i = 0; i < names.length; i++)
+			{
+				outputStream.writeByte(flags[i]);
+				outputStream.writeLong(sizes[i]);
+				outputStream.writeLong(lastModified[i]);
+				writeString(outputStream, names[i]);
+			}
+		}
+
+		if(!temporaryFile.renameTo(snapshotFile))
+		{
+			//noinspection ResultOfMethodCallIgnored
+			temporaryFile.delete();
+			throw new IOException("Failed to store snapshot: " + snapshotFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Returns the file used to store the snapshot of a directory.
+	 *
+	 * @param snapshotDirectory Snapshot cache directory
+	 * @param directory Listed directory
+	 * @return Snapshot file
+	 */
+	@NonNull
+	static File getSnapshotFile(@NonNull File snapshotDirectory, @NonNull File directory)
+	{
+		//Hash collisions are detected by comparing the stored path on read
+		String path = directory.getAbsolutePath();
+		return new File(snapshotDirectory, Integer.toHexString(path.hashCode()) + "_" + path.length());
+	}
+
+	/**
+	 * Collects children in any order and creates a snapshot sorted by name.
+	 */
+	static final class Builder
+	{
+		private final File directory;
+		private final long directoryLastModified;
+
+		private int count;
+		private String[] names = new String[16];
+		private byte[] flags = new byte[16];
+		private long[] sizes = new long[16];
+		private long[] lastModified = new long[16];
+
+		Builder(@NonNull File directory, long directoryLastModified)
+		{
+			this.directory = directory;
+			this.directoryLastModified = directoryLastModified;
+		}
+
+		void add(@NonNull String name, int childFlags, long size, long childLastModified)
+		{
+			if(count == names.length)
+			{
+				int capacity = count * 2;
+				names = Arrays.copyOf(names, capacity);
+				flags = Arrays.copyOf(flags, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+				lastModified = Arrays.copyOf(lastModified, capacity);
+			}
+
+			names[count] = name;
+			flags[count] = (byte) childFlags;
+			sizes[count] = size;
+			lastModified[count] = childLastModified;
+			count++;
+		}
+
+		@NonNull
+		ListingSnapshot build()
+		{
+			Integer[] order = new Integer[count];
+			for(int i = 0; i < count; i++)order[i] = i;
+			Arrays.sort(order, (o1, o2) -> names[o1].compareTo(names[o2]));
+
+			String[] sortedNames = new String[count];
+			byte[] sortedFlags = new byte[count];
+			long[] sortedSizes = new long[count];
+			long[] sortedLastModified = new long[count];
+			for(int i = 0; i < count; i++)
+			{
+				int index = order[i];
+				sortedNames[i] = names[index];
+				sortedFlags[i] = flags[index];
+				sortedSizes[i] = sizes[index];
+				sortedLastModified[i] = lastModified[index];
+			}
+
+			return new ListingSnapshot(directory, directoryLastModified,
+					sortedNames, sortedFlags, sortedSizes, sortedLastModified);
+		}
+	}
+
+	private static String readString(@NonNull MappedByteBuffer buffer)
+	{
+		int length = buffer.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static void writeString(@NonNull DataOutputStream outputStream, @NonNull String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(UTF_8);
+		if(bytes.length > 0xFFFF)throw new IOException("Name too long: " + value);
+		outputStream.writeShort(bytes.length);
+		outputStream.write(bytes);
+	}
+
+	/**
+	 * Returns if both snapshots describe the same children with the same attributes.
+	 *
+	 * @param other Other snapshot
+	 * @return Equal content
+	 */
+	boolean hasSameContent(@Nullable ListingSnapshot other)
+	{
+		return other != null
+				&& Arrays.equals(names, other.names)
+				&& Arrays.equals(flags, other.flags)
+				&& Arrays.equals(sizes, other.sizes)
+				&& Arrays.equals(lastModified, other.lastModified);
+	}
+
+	/**
+	 * Takes over the MIME types of children whose size and last modified time did not change.
+	 * Both snapshots are sorted by name, so they are merged in a single pass.
+	 *
+	 * @param previous Previous snapshot of the same directory or null
+	 */
+	void inheritMimeTypes(@Nullable ListingSnapshot previous)
+	{
+		String[] previousTypes = previous != null ? previous.mimeTypes : null;
+		if(previousTypes == null || mimeTypes != null)return;
+
+		String[] inherited = new String[names.length];
+		int previousIndex = 0;
+		for(int i = 0; i < names.length && previousIndex < previous.names.length; i++)
+		{
+			while(previousIndex < previous.names.length && previous.names[previousIndex].compareTo(names[i]) < 0)previousIndex++;
+			if(previousIndex < previous.names.length && previous.names[previousIndex].equals(names[i])
+					&& previous.sizes[previousIndex] == sizes[i] && previous.lastModified[previousIndex] == lastModified[i])
+				inherited[i] = previousTypes[previousIndex];
+		}
+		mimeTypes = inherited;
+	}
+
+	/**
+	 * @return MIME types detected for the children or null, entries are null for undetected children
+	 */
+	@Nullable
+	String[] getMimeTypes()
+	{
+		return mimeTypes;
+	}
+
+	/**
+	 * Replaces the detected MIME types. The array must not be changed afterwards,
+	 * it is shared by all listings of this snapshot.
+	 *
+	 * @param mimeTypes MIME types by child index
+	 */
+	void setMimeTypes(@NonNull String[] mimeTypes)
+	{
+		this.mimeTypes = mimeTypes;
+	}
+
+	@NonNull
+	File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * @return Last modified time of the directory when the snapshot was scanned
+	 */
+	long getDirectoryLastModified()
+	{
+		return directoryLastModified;
+	}
+
+	int size()
+	{
+		return names.length;
+	}
+
+	@NonNull
+	String getName(int index)
+	{
+		return names[index];
+	}
+
+	boolean hasFlag(int index, int flag)
+	{
+		return (flags[index] & flag) != 0;
+	}
+
+	long getSize(int index)
+	{
+		return sizes[index];
+	}
+
+	long getLastModified(int index)
+	{
+		return lastModified[index];
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Detects the MIME type of files from their first bytes instead of their name.
+ *
+ * Only a small header is read into a buffer reused by each thread.
+ * Results are cached by path, size and modification time, so listing the same folder
+ * again does not read any file, while changed files are detected again.
+ * Plain text formats have no magic bytes and are not detected.
+ *
+ * @author Philipp Kutsch
+ */
+final class MimeSniffer
+{
+	//Longest signature offset plus length
+	private static final int HEADER_SIZE = 16;
+	//Cached result of files without known signature
+	private static final String UNKNOWN = "";
+
+	private final StorageBackend storageBackend;
+	private final ThreadLocal<byte[]> headerBuffer = new ThreadLocal<byte[]>()
+	{
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[HEADER_SIZE];
+		}
+	};
+
+	//Guarded by itself
+	private final Map<String, String> cache;
+
+	/**
+	 * @param storageBackend Storage the files are read from
+	 * @param maxCacheSize Maximum number of cached results
+	 */
+	MimeSniffer(@NonNull StorageBackend storageBackend, int maxCacheSize)
+	{
+		if(maxCacheSize <= 0)throw new IllegalArgumentException("Cache size must be positive");
+		this.storageBackend = storageBackend;
+		this.cache = new LinkedHashMap<String, String>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+			{
+				return size() > maxCacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the detected MIME type, reading the file header if the file is not cached.
+	 *
+	 * @param file File
+	 * @param size Size in bytes
+	 * @param lastModified Last modified time in milliseconds
+	 * @return MIME type or null if unknown or not readable
+	 */
+	@Nullable
+	@WorkerThread
+	String getMimeType(@NonNull File file, long size, long lastModified)
+	{
+		String key = getKey(file, size, lastModified);
+		String mimeType;
+		synchronized(cache)
+		{
+			mimeType = cache.get(key);
+		}
+
+		if(mimeType == null)
+		{
+			mimeType = UNKNOWN;
+			if(size > 0)
+			{
+				byte[] header = headerBuffer.get();
+				try
+				{
+					String detected = detect(header, storageBackend.readHeader(file, header));
+					if(detected != null)mimeType = detected;
+				}
+				catch(IOException | SecurityException e)
+				{
+					//Unreadable files are treated as unknown until they change
+				}
+			}
+
+			synchronized(cache)
+			{
+				cache.put(key, mimeType);
+			}
+		}
+		return mimeType.isEmpty() ? null : mimeType;
+	}
+
+	/**
+	 * Returns if the MIME type matches one of the patterns.
+	 * Patterns are full types ("image/png") or type wildcards ("image/*").
+	 *
+	 * @param mimeType Detected MIME type or null
+	 * @param patterns Patterns
+	 * @return MIME type matches
+	 */
+	static boolean matches(@Nullable String mimeType, @NonNull String[] patterns)
+	{
+		if(mimeType == null)return false;
+
+		for(String pattern : patterns)
+		{
+			if(pattern.equals("*/*") || pattern.equalsIgnoreCase(mimeType))return true;
+			if(pattern.endsWith("/*") && mimeType.regionMatches(true, 0, pattern, 0, pattern.length() - 1))return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Detects the type of a file from its magic bytes.
+	 *
+	 * @param header First bytes of the file
+	 * @param length Number of valid bytes
+	 * @return MIME type or null if unknown
+	 */
+	@Nullable
+	static String detect(@NonNull byte[] header, int length)
+	{
+		if(startsWith(header, length, 0, 0xFF, 0xD8, 0xFF))return "image/jpeg";
+		if(startsWith(header, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A))return "image/png";
+		if(startsWith(header, length, 0, 'G', 'I', 'F', '8'))return "image/gif";
+		if(startsWith(header, length, 0, 'B', 'M'))return "image/bmp";
+		if(startsWith(header, length, 0, 'R', 'I', 'F', 'F'))
+		{
+			if(startsWith(header, length, 8, 'W', 'E', 'B', 'P'))return "image/webp";
+			if(startsWith(header, length, 8, 'W', 'A', 'V', 'E'))return "audio/x-wav";
+			if(startsWith(header, length, 8, 'A', 'V', 'I', ' '))return "video/x-msvideo";
+		}
+		if(startsWith(header, length, 4, 'f', 't', 'y', 'p'))
+		{
+			//ISO base media files, the major brand tells the actual format
+			if(startsWith(header, length, 8, 'h', 'e', 'i', 'c') || startsWith(header, length, 8, 'h', 'e', 'i', 'x')
+					|| startsWith(header, length, 8, 'm', 'i', 'f', '1'))return "image/heic";
+			if(startsWith(header, length, 8, '3', 'g'))return "video/3gpp";
+			if(startsWith(header, length, 8, 'M', '4', 'A'))return "audio/mp4";
+			return "video/mp4";
+		}
+		if(startsWith(header, length, 0, 0x1A, 0x45, 0xDF, 0xA3))return "video/x-matroska";
+		if(startsWith(header, length, 0, 'I', 'D', '3'))return "audio/mpeg";
+		if(length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xE0) == 0xE0)return "audio/mpeg";
+		if(startsWith(header, length, 0, 'O', 'g', 'g', 'S'))return "audio/ogg";
+		if(startsWith(header, length, 0, 'f', 'L', 'a', 'C'))return "audio/flac";
+		if(startsWith(header, length, 0, '%', 'P', 'D', 'F'))return "application/pdf";
+		if(startsWith(header, length, 0, 'P', 'K', 0x03, 0x04))return "application/zip";
+		if(startsWith(header, length, 0, 0x1F, 0x8B))return "application/gzip";
+		return null;
+	}
+
+	private static boolean startsWith(@NonNull byte[] header, int length, int offset, int... signature)
+	{
+		if(offset + signature.length > length)return false;
+		for(int i = 0; i < signature.length; i++)
+		{
+			if((header[offset + i] & 0xFF) != signature[i])return false;
+		}
+		return true;
+	}
+
+	@NonNull
+	private static String getKey(@NonNull File file, long size, long lastModified)
+	{
+		return file.getAbsolutePath() + '\0' + size + '\0' + lastModified;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local file system storage backed by java.nio.file.
+ * Attributes of a child are read with a single call instead of
+ * one call per attribute.
+ *
+ * @author Philipp Kutsch
+ */
+@RequiresApi(Build.VERSION_CODES.O)
+public final class PathStorageBackend implements StorageBackend
+{
+	@NonNull
+	@Override
+	public List<Attributes> list(@NonNull File directory) throws IOException
+	{
+		List<Attributes> attributes = new ArrayList<>();
+		try(DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory.toPath()))
+		{
+			for(Path child : directoryStream)
+			{
+				Attributes childAttributes = stat(child);
+				if(childAttributes != null)attributes.add(childAttributes);
+			}
+		}
+		return attributes;
+	}
+
+	@Nullable
+	@Override
+	public Attributes stat(@NonNull File file)
+	{
+		return stat(file.toPath());
+	}
+
+	@Nullable
+	private Attributes stat(@NonNull Path path)
+	{
+		if(!Files.isReadable(path))return null;
+
+		try
+		{
+			BasicFileAttributes basicFileAttributes = Files.readAttributes(path, BasicFileAttributes.class);
+			Path fileName = path.getFileName();
+			String name = fileName != null ? fileName.toString() : path.toString();
+			boolean hidden = name.startsWith(".");
+			long lastModified = basicFileAttributes.lastModifiedTime().toMillis();
+
+			if(basicFileAttributes.isDirectory())
+				return Attributes.directory(name, hidden, lastModified);
+			else if(basicFileAttributes.isRegularFile())
+				return Attributes.file(name, hidden, basicFileAttributes.size(), lastModified);
+		}
+		catch(IOException e)
+		{
+			//Treated like a missing file
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isEmpty(@NonNull File directory)
+	{
+		return FileStorageBackend.probeEmpty(directory);
+	}
+
+	@Override
+	public int readHeader(@NonNull File file, @NonNull byte[] buffer) throws IOException
+	{
+		try(InputStream inputStream = Files.newInputStream(file.toPath()))
+		{
+			return FileUtils.readFully(inputStream, buffer);
+		}
+	}
+
+	@NonNull
+	@Override
+	public Closeable watch(@NonNull File directory, @NonNull WatchListener listener) throws IOException
+	{
+		Path path = directory.toPath();
+		WatchService watchService = path.getFileSystem().newWatchService();
+		path.register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		//WatchService blocks while waiting, so it gets its own thread instead of a pool thread
+		Thread watchThread = new Thread(() ->
+		{
+			try
+			{
+				while(true)
+				{
+					WatchKey watchKey = watchService.take();
+					watchKey.pollEvents();
+					listener.onChanged(directory);
+					if(!watchKey.reset())break;
+				}
+			}
+			catch(InterruptedException | ClosedWatchServiceException e)
+			{
+				//Watching stopped
+			}
+		}, "PickerPathWatch");
+		watchThread.setDaemon(true);
+		watchThread.start();
+
+		return watchService;
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor supplied by the host application.
+ * If set, all background work of the dialog (listing, crawling and formatting)
+ * is scheduled on this executor instead of the shared library pools.
+ *
+ * @author Philipp Kutsch
+ */
+public interface PickerExecutor extends Executor, Parcelable
+{
+	default int describeContents() { return 0; }
+	default void writeToParcel(Parcel dest, int flags) { }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Library wide background pools.
+ * Pools are created lazily, shared between all dialog instances
+ * and shrink to zero threads while idle.
+ *
+ * @author Philipp Kutsch
+ */
+final class PickerExecutors
+{
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	/**
+	 * Listing : Reads directory contents that are about to be displayed
+	 * Crawling : Recursive folder walks (folder size, file count)
+	 * Formatting : Builds human readable entry information
+	 * Thumbnails : Decodes image and video previews
+	 */
+	enum Pool
+	{
+		Listing("PickerListing", 2, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE),
+		Crawling("PickerCrawling", Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4)), Process.THREAD_PRIORITY_BACKGROUND),
+		Formatting("PickerFormatting", 1, Process.THREAD_PRIORITY_BACKGROUND),
+		Thumbnails("PickerThumbnails", 2, Process.THREAD_PRIORITY_BACKGROUND);
+
+		private final String threadName;
+		private final int threadCount;
+		private final int threadPriority;
+
+		Pool(String threadName, int threadCount, int threadPriority)
+		{
+			this.threadName = threadName;
+			this.threadCount = threadCount;
+			this.threadPriority = threadPriority;
+		}
+	}
+
+	private static final Map<Pool, Executor> executors = new EnumMap<>(Pool.class);
+
+	private PickerExecutors()
+	{
+	}
+
+	/**
+	 * Returns the shared executor of the given pool.
+	 *
+	 * @param pool Pool
+	 * @return Executor
+	 */
+	@NonNull
+	static synchronized Executor get(@NonNull Pool pool)
+	{
+		Executor executor = executors.get(pool);
+		if(executor == null)
+		{
+			ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(pool.threadCount, pool.threadCount,
+					KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(),
+					new PoolThreadFactory(pool));
+			threadPoolExecutor.allowCoreThreadTimeOut(true);
+			executor = threadPoolExecutor;
+			executors.put(pool, executor);
+		}
+		return executor;
+	}
+
+	/**
+	 * Creates named threads with the priority of the pool.
+	 */
+	private static class PoolThreadFactory implements ThreadFactory
+	{
+		private final Pool pool;
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		PoolThreadFactory(@NonNull Pool pool)
+		{
+			this.pool = pool;
+		}
+
+		@Override
+		public Thread newThread(@NonNull Runnable runnable)
+		{
+			return new Thread(() ->
+			{
+				Process.setThreadPriority(pool.threadPriority);
+				runnable.run();
+			}, pool.threadName + "-" + threadNumber.getAndIncrement());
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+/**
+ * File size and modification date range.
+ * Evaluated against already read attributes, so filtering needs no additional storage access.
+ *
+ * @author Philipp Kutsch
+ */
+final class RangeFilter
+{
+	private final long minSize;
+	private final long maxSize;
+	private final long minLastModified;
+	private final long maxLastModified;
+
+	/**
+	 * @param minSize Minimum file size in bytes, inclusive
+	 * @param maxSize Maximum file size in bytes, inclusive
+	 * @param minLastModified Earliest modification time in milliseconds, inclusive
+	 * @param maxLastModified Latest modification time in milliseconds, inclusive
+	 */
+	RangeFilter(long minSize, long maxSize, long minLastModified, long maxLastModified)
+	{
+		if(minSize > maxSize)throw new IllegalArgumentException("Minimum size must not exceed maximum size");
+		if(minLastModified > maxLastModified)throw new IllegalArgumentException("Start date must not be after end date");
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.minLastModified = minLastModified;
+		this.maxLastModified = maxLastModified;
+	}
+
+	/**
+	 * @return Filter with a size or date restriction
+	 */
+	boolean isRestricted()
+	{
+		return minSize > 0 || maxSize != Long.MAX_VALUE
+				|| minLastModified != Long.MIN_VALUE || maxLastModified != Long.MAX_VALUE;
+	}
+
+	/**
+	 * @param size File size in bytes
+	 * @param lastModified Last modified time in milliseconds
+	 * @return File is inside both ranges
+	 */
+	boolean matches(long size, long lastModified)
+	{
+		return size >= minSize && size <= maxSize
+				&& lastModified >= minLastModified && lastModified <= maxLastModified;
+	}
+
+	/**
+	 * Returns if a folder can contain a matching file.
+	 * A folder smaller than the minimum size can not contain a large enough file
+	 * and a folder without files can not contain any.
+	 *
+	 * @param folderInfo Total size and file count of the folder
+	 * @return False if the folder can be skipped
+	 */
+	boolean mayContainMatch(@NonNull FolderInfo folderInfo)
+	{
+		return folderInfo.getFileCount() > 0 && folderInfo.getSize() >= minSize;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Alphabetical sections of the displayed entries.
+ * Entries arrive sorted, folders followed by files, so sections are built
+ * incrementally while batches are appended. A new section starts whenever
+ * the first letter or the entry type changes.
+ *
+ * Jumping to a section is a single array lookup.
+ *
+ * @author Philipp Kutsch
+ */
+final class SectionIndex
+{
+	//Label of names not starting with a letter
+	private static final String OTHER_LABEL = "#";
+
+	private String[] labels = new String[32];
+	private int[] positions = new int[32];
+	private FileDirectoryPickerDialog.Entry.EntryType lastEntryType;
+	private int count;
+
+	/**
+	 * Removes all sections.
+	 */
+	void clear()
+	{
+		count = 0;
+		lastEntryType = null;
+	}
+
+	/**
+	 * Appends the sections of a sorted entry batch.
+	 *
+	 * @param entries Entries, sorted and following the previously appended entries
+	 * @param firstPosition Adapter position of the first entry
+	 */
+	void append(@NonNull List<FileDirectoryPickerDialog.Entry> entries, int firstPosition)
+	{
+		for(int i = 0; i < entries.size(); i++)
+		{
+			FileDirectoryPickerDialog.Entry entry = entries.get(i);
+			append(entry.getName(), entry.getEntryType(), firstPosition + i);
+		}
+	}
+
+	/**
+	 * Appends a single sorted entry, e.g. of a paged listing without creating the entry.
+	 *
+	 * @param name Entry name
+	 * @param entryType Entry type
+	 * @param position Adapter position of the entry
+	 */
+	void append(@NonNull String name, @NonNull FileDirectoryPickerDialog.Entry.EntryType entryType, int position)
+	{
+		String label = getLabel(name);
+		if(count > 0 && entryType == lastEntryType && label.equals(labels[count - 1]))return;
+
+		if(count == labels.length)
+		{
+			labels = Arrays.copyOf(labels, count * 2);
+			positions = Arrays.copyOf(positions, count * 2);
+		}
+		labels[count] = label;
+		positions[count] = position;
+		lastEntryType = entryType;
+		count++;
+	}
+
+	int size()
+	{
+		return count;
+	}
+
+	@NonNull
+	String getLabel(int section)
+	{
+		return labels[section];
+	}
+
+	/**
+	 * @param section Section
+	 * @return Adapter position of the first entry of the section
+	 */
+	int getPosition(int section)
+	{
+		return positions[section];
+	}
+
+	/**
+	 * @param position Adapter position
+	 * @return Section containing the position
+	 */
+	int getSectionForPosition(int position)
+	{
+		int index = Arrays.binarySearch(positions, 0, count, position);
+		if(index >= 0)return index;
+		return Math.max(0, -index - 2);
+	}
+
+	@NonNull
+	private static String getLabel(@NonNull String name)
+	{
+		if(name.isEmpty() || !Character.isLetter(name.charAt(0)))return OTHER_LABEL;
+		return name.substring(0, 1).toUpperCase(Locale.getDefault());
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Expands a normalized selection into the files of all selected folders.
+ * Every folder is listed as its own task, so sibling folders are walked in parallel.
+ * Folders and files reachable twice (e.g. through document tree aliases) are only listed and returned once.
+ * With a size or date range, only matching files are returned and folders whose known
+ * size and file count can not contain a match are skipped without being listed.
+ *
+ * @author Philipp Kutsch
+ */
+final class SelectionExpander
+{
+	//Minimum time between two progress updates
+	private static final long PROGRESS_INTERVAL_NS = 100_000_000L;
+
+	private final StorageBackend storageBackend;
+	private final boolean includeHidden;
+	private final RangeFilter rangeFilter;
+	private final Map<File, FolderInfo> knownFolderInfos;
+	private final TaskGroup tasks;
+
+	private final Set<File> visitedFolders = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private final Set<File> files = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private final AtomicInteger pendingFolders = new AtomicInteger();
+	private final AtomicLong listedFolders = new AtomicLong();
+	private final AtomicLong lastProgress = new AtomicLong();
+	private volatile boolean cancelled;
+	private Callback callback;
+
+	/**
+	 * @param storageBackend Storage containing the selection
+	 * @param includeHidden Return hidden files and walk hidden folders
+	 * @param rangeFilter Size and date range of walked files or null
+	 * @param knownFolderInfos Already crawled folders, used to skip folders without matching files
+	 * @param executor Executor used for listing folders
+	 */
+	SelectionExpander(@NonNull StorageBackend storageBackend, boolean includeHidden, @Nullable RangeFilter rangeFilter,
+	                  @NonNull Map<File, FolderInfo> knownFolderInfos, @NonNull Executor executor)
+	{
+		this.storageBackend = storageBackend;
+		this.includeHidden = includeHidden;
+		this.rangeFilter = rangeFilter;
+		this.knownFolderInfos = knownFolderInfos;
+		this.tasks = new TaskGroup(executor);
+	}
+
+	/**
+	 * Starts the expansion. An expander can only be started once.
+	 *
+	 * @param selection Normalized selection
+	 * @param callback Called on the listing threads unless cancelled
+	 */
+	void expand(@NonNull SelectionTrie selection, @NonNull Callback callback)
+	{
+		if(this.callback != null)throw new IllegalStateException("Expansion already started");
+		this.callback = callback;
+
+		//Explicitly selected files are always returned, even if hidden
+		files.addAll(selection.getFiles());
+		List<File> folders = selection.getFolders();
+		if(folders.isEmpty())
+		{
+			tasks.execute(this::complete);
+			return;
+		}
+
+		pendingFolders.set(folders.size());
+		for(File folder : folders)tasks.execute(() -> walk(folder));
+	}
+
+	/**
+	 * Stops walking, no further callbacks are made.
+	 */
+	void cancel()
+	{
+		cancelled = true;
+		tasks.cancelAll();
+	}
+
+	@WorkerThread
+	private void walk(@NonNull File folder)
+	{
+		if(cancelled)return;
+
+		try
+		{
+			if(mayContainMatch(folder) && visitedFolders.add(folder))
+			{
+				try
+				{
+					for(StorageBackend.Attributes child : storageBackend.list(folder))
+					{
+						if(!includeHidden && child.isHidden())continue;
+
+						File childFile = new File(folder, child.getName());
+						if(child.isDirectory())
+						{
+							pendingFolders.incrementAndGet();
+							tasks.execute(() -> walk(childFile));
+						}
+						else if(rangeFilter == null || rangeFilter.matches(child.getSize(), child.getLastModified()))
+							files.add(childFile);
+					}
+				}
+				catch(IOException | RuntimeException e)
+				{
+					//Unreadable folders are skipped, e.g. if access is denied by the backend
+				}
+				listedFolders.incrementAndGet();
+				reportProgress();
+			}
+		}
+		finally
+		{
+			//Counted even if the folder failed, otherwise the expansion never completes
+			if(pendingFolders.decrementAndGet() == 0)complete();
+		}
+	}
+
+	/**
+	 * @return False if the known folder info proves that the folder has no matching file
+	 */
+	private boolean mayContainMatch(@NonNull File folder)
+	{
+		if(rangeFilter == null)return true;
+		FolderInfo folderInfo = knownFolderInfos.get(folder);
+		return folderInfo == null || rangeFilter.mayContainMatch(folderInfo);
+	}
+
+	@WorkerThread
+	private void reportProgress()
+	{
+		long now = System.nanoTime();
+		long last = lastProgress.get();
+		if(now - last < PROGRESS_INTERVAL_NS || !lastProgress.compareAndSet(last, now))return;
+		if(!cancelled)callback.onProgress(listedFolders.get(), files.size());
+	}
+
+	@WorkerThread
+	private void complete()
+	{
+		if(cancelled)return;
+
+		List<File> result = new ArrayList<>(files);
+		Collections.sort(result);
+		callback.onExpanded(result);
+	}
+
+	interface Callback
+	{
+		/**
+		 * @param folderCount Number of folders listed so far
+		 * @param fileCount Number of files found so far
+		 */
+		@WorkerThread
+		void onProgress(long folderCount, long fileCount);
+
+		/**
+		 * @param files All selected files and the files inside the selected folders, sorted by path
+		 */
+		@WorkerThread
+		void onExpanded(@NonNull List<File> files);
+	}
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Selection of the dialog persisted as append only log inside a cache directory.
+ * Survives process death, only the file name has to be kept in the saved instance state.
+ *
+ * Every selection change appends one record. Paths are front coded against the
+ * path of the previous record, so selections inside the same folder only store
+ * the differing name. The log is rewritten in sorted order once it holds
+ * much more records than selected paths.
+ *
+ * Record layout:
+ * op (byte) | shared prefix length (varint) | suffix length (varint) | suffix (UTF-8)
+ *
+ * Writes are executed one at a time in submission order on the given executor.
+ *
+ * @author Philipp Kutsch
+ */
+final class SelectionStore
+{
+	//Selection logs are versioned independently of listing snapshots
+	private static final int MAGIC = 0x46445353; //FDSS
+	private static final byte VERSION = 1;
+
+	private static final byte OP_ADD_FILE = 1;
+	private static final byte OP_ADD_FOLDER = 2;
+	private static final byte OP_REMOVE_FILE = 3;
+	private static final byte OP_REMOVE_FOLDER = 4;
+	private static final byte OP_CLEAR = 5;
+
+	//Log is compacted if it holds more than twice the selected paths plus this number of records
+	private static final int COMPACT_SLACK = 256;
+	//Logs of dialogs which never got restored are deleted after this time
+	private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final Executor executor;
+
+	//Guarded by this
+	private final Queue<Runnable> pendingWrites = new ArrayDeque<>();
+	private boolean writing;
+
+	//Only accessed by the write task
+	private DataOutputStream outputStream;
+	private byte[] previousPath = new byte[0];
+	//Only written by the write task, also read before compaction is enqueued
+	private volatile int recordCount;
+
+	private SelectionStore(@NonNull File file, @NonNull Executor executor)
+	{
+		this.file = file;
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates an empty store. The file is created with the first change.
+	 * Outdated logs of previous dialogs are deleted in the background.
+	 *
+	 * @param directory Store directory
+	 * @param executor Executor used for writing
+	 * @return Store
+	 */
+	@NonNull
+	static SelectionStore create(@NonNull File directory, @NonNull Executor executor)
+	{
+		SelectionStore selectionStore = new SelectionStore(new File(directory, UUID.randomUUID().toString()), executor);
+		selectionStore.enqueue(() -> deleteOutdated(directory));
+		return selectionStore;
+	}
+
+	/**
+	 * Opens the store of a previous dialog instance.
+	 *
+	 * @param directory Store directory
+	 * @param handle Handle of the previous store, see {@link #getHandle()}
+	 * @param executor Executor used for writing
+	 * @return Store
+	 */
+	@NonNull
+	static SelectionStore open(@NonNull File directory, @NonNull String handle, @NonNull Executor executor)
+	{
+		//Handles are plain file names
+		return new SelectionStore(new File(directory, new File(handle).getName()), executor);
+	}
+
+	/**
+	 * @return Small handle identifying the store, kept in the saved instance state
+	 */
+	@NonNull
+	String getHandle()
+	{
+		return file.getName();
+	}
+
+	void add(@NonNull File path, boolean folder)
+	{
+		append(folder ? OP_ADD_FOLDER : OP_ADD_FILE, path);
+	}
+
+	void remove(@NonNull File path, boolean folder)
+	{
+		append(folder ? OP_REMOVE_FOLDER : OP_REMOVE_FILE, path);
+	}
+
+	void clear()
+	{
+		append(OP_CLEAR, null);
+	}
+
+	/**
+	 * Rewrites the log with the current selection if it grew much larger than the selection.
+	 *
+	 * @param files Selected files
+	 * @param folders Selected folders
+	 */
+	void compactIfNeeded(@NonNull Collection<File> files, @NonNull Collection<File> folders)
+	{
+		//Selections are only copied if the written log is already large enough
+		int selectedCount = files.size() + folders.size();
+		if(recordCount <= selectedCount * 2 + COMPACT_SLACK)return;
+
+		List<File> fileSnapshot = new ArrayList<>(files);
+		List<File> folderSnapshot = new ArrayList<>(folders);
+		enqueue(() ->
+		{
+			//Another compaction may have run meanwhile
+			if(recordCount <= selectedCount * 2 + COMPACT_SLACK)return;
+			try
+			{
+				rewrite(fileSnapshot, folderSnapshot);
+			}
+			catch(IOException e)
+			{
+				//Keep appending to the current log
+			}
+		});
+	}
+
+	/**
+	 * Replays the log after all pending writes.
+	 *
+	 * @param callback Called on the write executor
+	 */
+	void restore(@NonNull RestoreCallback callback)
+	{
+		enqueue(() -> callback.onRestored(readLog()));
+	}
+
+	/**
+	 * Replays the log.
+	 *
+	 * @return Selected files and folders in selection order, empty if the log is missing or unreadable
+	 */
+	@NonNull
+	@WorkerThread
+	private Selection readLog()
+	{
+		Set<File> files = new LinkedHashSet<>();
+		Set<File> folders = new LinkedHashSet<>();
+		if(!file.isFile())return new Selection(files, folders);
+
+		try(DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if(inputStream.readInt() != MAGIC || inputStream.readByte() != VERSION)return new Selection(files, folders);
+
+			byte[] path = new byte[0];
+			while(true)
+			{
+				int op = inputStream.read();
+				if(op == -1)break;
+				if(op == OP_CLEAR)
+				{
+					files.clear();
+					folders.clear();
+					continue;
+				}
+
+				int shared = readVarInt(inputStream);
+				int suffixLength = readVarInt(inputStream);
+				if(shared > path.length || suffixLength < 0)break;
+
+				byte[] nextPath = Arrays.copyOf(path, shared + suffixLength);
+				inputStream.readFully(nextPath, shared, suffixLength);
+				path = nextPath;
+
+				File selected = new File(new String(path, UTF_8));
+				switch(op)
+				{
+					case OP_ADD_FILE: files.add(selected); break;
+					case OP_ADD_FOLDER: folders.add(selected); break;
+					case OP_REMOVE_FILE: files.remove(selected); break;
+					case OP_REMOVE_FOLDER: folders.remove(selected); break;
+					default: return new Selection(files, folders);
+				}
+			}
+		}
+		catch(EOFException e)
+		{
+			//Last record was not completely written, e.g. the process got killed
+		}
+		catch(IOException e)
+		{
+			return new Selection(Collections.emptySet(), Collections.emptySet());
+		}
+		return new Selection(files, folders);
+	}
+
+	/**
+	 * Closes the log after all pending writes. The file is kept for restoring.
+	 */
+	void close()
+	{
+		enqueue(this::closeStream);
+	}
+
+	/**
+	 * Deletes the log after all pending writes.
+	 */
+	void delete()
+	{
+		enqueue(() ->
+		{
+			closeStream();
+			//noinspection ResultOfMethodCallIgnored
+			file.delete();
+		});
+	}
+
+	private void append(byte op, @Nullable File path)
+	{
+		enqueue(() ->
+		{
+			try
+			{
+				if(outputStream == null)openStream();
+				writeRecord(outputStream, op, path);
+				outputStream.flush();
+			}
+			catch(IOException e)
+			{
+				//Selection is still kept in memory, only restoring after process death is affected
+				closeStream();
+			}
+		});
+	}
+
+	@WorkerThread
+	private void openStream() throws IOException
+	{
+		File directory = file.getParentFile();
+		if(directory != null && !directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Failed to create " + directory);
+
+		if(!file.isFile())
+		{
+			//Start a new log with header
+			outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			outputStream.writeInt(MAGIC);
+			outputStream.writeByte(VERSION);
+			return;
+		}
+
+		//Continue a restored log from a replaced file, appending would follow a torn last record
+		Selection selection = readLog();
+		rewrite(new ArrayList<>(selection.getFiles()), new ArrayList<>(selection.getFolders()));
+	}
+
+	/**
+	 * Replaces the log with a sorted log of the selection.
+	 */
+	@WorkerThread
+	private void rewrite(@NonNull List<File> files, @NonNull List<File> folders) throws IOException
+	{
+		closeStream();
+		File temporaryFile = new File(file.getAbsolutePath() + ".tmp");
+		previousPath = new byte[0];
+		recordCount = 0;
+		try(DataOutputStream temporaryStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile))))
+		{
+			temporaryStream.writeInt(MAGIC);
+			temporaryStream.writeByte(VERSION);
+
+			//Sorted paths share the longest prefixes, selection order is not kept
+			Collections.sort(files);
+			Collections.sort(folders);
+			for(File selected : files)writeRecord(temporaryStream, OP_ADD_FILE, selected);
+			for(File selected : folders)writeRecord(temporaryStream, OP_ADD_FOLDER, selected);
+		}
+
+		if(!temporaryFile.renameTo(file))
+		{
+			//noinspection ResultOfMethodCallIgnored
+			temporaryFile.delete();
+			throw new IOException("Failed to replace " + file);
+		}
+		outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	@WorkerThread
+	private void writeRecord(@NonNull DataOutputStream stream, byte op, @Nullable File path) throws IOException
+	{
+		stream.writeByte(op);
+		recordCount++;
+		if(path == null)return;
+
+		byte[] pathBytes = path.getAbsolutePath().getBytes(UTF_8);
+		int shared = 0;
+		int maxShared = Math.min(pathBytes.length, previousPath.length);
+		while(shared < maxShared && pathBytes[shared] == previousPath[shared])shared++;
+
+		writeVarInt(stream, shared);
+		writeVarInt(stream, pathBytes.length - shared);
+		stream.write(pathBytes, shared, pathBytes.length - shared);
+		previousPath = pathBytes;
+	}
+
+	@WorkerThread
+	private void closeStream()
+	{
+		if(outputStream == null)return;
+		try
+		{
+			outputStream.close();
+		}
+		catch(IOException e)
+		{
+			//Written records are kept
+		}
+		outputStream = null;
+	}
+
+	/**
+	 * Executes the write after all previously enqueued writes.
+	 */
+	private void enqueue(@NonNull Runnable write)
+	{
+		synchronized(this)
+		{
+			pendingWrites.add(write);
+			if(writing)return;
+			writing = true;
+		}
+		executor.execute(this::runWrites);
+	}
+
+	private void runWrites()
+	{
+		while(true)
+		{
+			Runnable write;
+			synchronized(this)
+			{
+				write = pendingWrites.poll();
+				if(write == null)
+				{
+					writing = false;
+					return;
+				}
+			}
+			write.run();
+		}
+	}
+
+	@WorkerThread
+	private static void deleteOutdated(@NonNull File directory)
+	{
+		File[] files = directory.listFiles();
+		if(files == null)return;
+
+		long now = System.currentTimeMillis();
+		for(File file : files)
+		{
+			if(now - file.lastModified() > MAX_AGE_MS)
+			{
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+			}
+		}
+	}
+
+	private static void writeVarInt(@NonNull OutputStream stream, int value) throws IOException
+	{
+		while((value & ~0x7F) != 0)
+		{
+			stream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		stream.write(value);
+	}
+
+	private static int readVarInt(@NonNull InputStream stream) throws IOException
+	{
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7)
+		{
+			int b = stream.read();
+			if(b == -1)throw new EOFException();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Restored selection.
+	 */
+	static final class Selection
+	{
+		private final Set<File> files;
+		private final Set<File> folders;
+
+		Selection(@NonNull Set<File> files, @NonNull Set<File> folders)
+		{
+			this.files = files;
+			this.folders = folders;
+		}
+
+		@NonNull
+		Set<File> getFiles()
+		{
+			return files;
+		}
+
+		@NonNull
+		Set<File> getFolders()
+		{
+			return folders;
+		}
+	}
+
+	interface RestoreCallback
+	{
+		@WorkerThread
+		void onRestored(@NonNull Selection selection);
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily expanded picker result.
+ * Selected files are returned as they are, selected folders are walked
+ * depth first while iterating, so the first file is available immediately
+ * and no complete file list is ever allocated.
+ *
+ * Files found inside selected folders are only returned if they are inside the size and date range of the picker.
+ *
+ * Every call to {@link #iterator()} starts a new walk.
+ * Iterating touches the storage and should not be done on the ui thread.
+ *
+ * @author Philipp Kutsch
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class SelectionStream implements Iterable<File>
+{
+	private final StorageBackend storageBackend;
+	private final List<File> selectedFiles;
+	private final List<File> selectedFolders;
+	private final boolean includeHidden;
+	private final RangeFilter rangeFilter;
+
+	SelectionStream(@NonNull StorageBackend storageBackend, @NonNull List<File> selectedFiles,
+	                @NonNull List<File> selectedFolders, boolean includeHidden, @Nullable RangeFilter rangeFilter)
+	{
+		this.storageBackend = storageBackend;
+		this.selectedFiles = Collections.unmodifiableList(selectedFiles);
+		this.selectedFolders = Collections.unmodifiableList(selectedFolders);
+		this.includeHidden = includeHidden;
+		this.rangeFilter = rangeFilter;
+	}
+
+	/**
+	 * @return Files selected by the user, without folder contents
+	 */
+	@NonNull
+	public List<File> getSelectedFiles()
+	{
+		return selectedFiles;
+	}
+
+	/**
+	 * @return Folders selected by the user
+	 */
+	@NonNull
+	public List<File> getSelectedFolders()
+	{
+		return selectedFolders;
+	}
+
+	@NonNull
+	@Override
+	public FileIterator iterator()
+	{
+		return new FileIterator();
+	}
+
+	/**
+	 * Walks the selection and keeps running totals of the returned files.
+	 */
+	public final class FileIterator implements Iterator<File>
+	{
+		private final Deque<Level> stack = new ArrayDeque<>();
+		private File next;
+		private long nextSize;
+		private long fileCount;
+		private long totalSize;
+
+		private FileIterator()
+		{
+			stack.push(new Level(null, selectedFolders.iterator(), null));
+			stack.push(new Level(null, selectedFiles.iterator(), null));
+		}
+
+		@Override
+		@WorkerThread
+		public boolean hasNext()
+		{
+			if(next == null)next = advance();
+			return next != null;
+		}
+
+		@Override
+		@WorkerThread
+		public File next()
+		{
+			if(!hasNext())throw new NoSuchElementException();
+
+			File file = next;
+			next = null;
+			fileCount++;
+			totalSize += nextSize;
+			return file;
+		}
+
+		/**
+		 * @return Number of files returned so far
+		 */
+		public long getFileCount()
+		{
+			return fileCount;
+		}
+
+		/**
+		 * @return Summed size in bytes of all files returned so far
+		 */
+		public long getTotalSize()
+		{
+			return totalSize;
+		}
+
+		private File advance()
+		{
+			while(!stack.isEmpty())
+			{
+				Level current = stack.peek();
+				if(!current.hasNext())
+				{
+					stack.pop();
+					continue;
+				}
+
+				File file;
+				StorageBackend.Attributes attributes;
+				if(current.roots != null)
+				{
+					//Explicitly selected entries are always returned, even if hidden
+					file = current.roots.next();
+					attributes = storageBackend.stat(file);
+					if(attributes == null)continue;
+				}
+				else
+				{
+					attributes = current.children.next();
+					if(!includeHidden && attributes.isHidden())continue;
+					if(rangeFilter != null && attributes.isFile()
+							&& !rangeFilter.matches(attributes.getSize(), attributes.getLastModified()))continue;
+					file = new File(current.directory, attributes.getName());
+				}
+
+				if(attributes.isDirectory())
+				{
+					try
+					{
+						List<StorageBackend.Attributes> children = storageBackend.list(file);
+						if(!children.isEmpty())stack.push(new Level(file, null, children.iterator()));
+					}
+					catch(IOException e)
+					{
+						//Unreadable folders are skipped
+					}
+				}
+				else
+				{
+					nextSize = attributes.getSize();
+					return file;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Position inside the selected roots or the children of a walked folder.
+	 */
+	private static class Level
+	{
+		private final File directory;
+		private final Iterator<File> roots;
+		private final Iterator<StorageBackend.Attributes> children;
+
+		Level(@Nullable File directory, @Nullable Iterator<File> roots,
+		      @Nullable Iterator<StorageBackend.Attributes> children)
+		{
+			this.directory = directory;
+			this.roots = roots;
+			this.children = children;
+		}
+
+		boolean hasNext()
+		{
+			return roots != null ? roots.hasNext() : children.hasNext();
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Running total size and file count of the current selection.
+ *
+ * Totals are updated on every selection change instead of being recalculated.
+ * Only selections outside of all selected folders are counted, so a file inside
+ * a selected folder is not counted twice. Sizes of listed files and folder infos
+ * of crawled folders are reused, all other selected paths are measured in the background.
+ *
+ * @author Philipp Kutsch
+ */
+final class SelectionSummary
+{
+	private final StorageBackend storageBackend;
+	private final TaskGroup tasks;
+	private final Listener listener;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final Set<File> files = new HashSet<>();
+	private final Set<File> folders = new HashSet<>();
+	//Size and file count of measured paths, files count as one file
+	private final Map<File, FolderInfo> infos = new HashMap<>();
+	private final Set<File> measuring = new HashSet<>();
+
+	private long totalSize;
+	private long totalFileCount;
+	//Counted paths which are still measured
+	private int pendingCount;
+
+	/**
+	 * @param storageBackend Storage containing the selection
+	 * @param executor Executor used for measuring
+	 * @param listener Called on the ui thread if the totals changed
+	 */
+	SelectionSummary(@NonNull StorageBackend storageBackend, @NonNull Executor executor, @NonNull Listener listener)
+	{
+		this.storageBackend = storageBackend;
+		this.tasks = new TaskGroup(executor);
+		this.listener = listener;
+	}
+
+	/**
+	 * Stores the already known size of a file.
+	 *
+	 * @param file File
+	 * @param size Size in bytes
+	 */
+	@UiThread
+	void putFileSize(@NonNull File file, long size)
+	{
+		putInfo(file, new FolderInfo(size, 1));
+	}
+
+	/**
+	 * Stores the already crawled size and file count of a folder.
+	 *
+	 * @param folder Folder
+	 * @param folderInfo Folder info
+	 */
+	@UiThread
+	void putFolderInfo(@NonNull File folder, @NonNull FolderInfo folderInfo)
+	{
+		putInfo(folder, folderInfo);
+	}
+
+	@UiThread
+	void add(@NonNull File path, boolean folder)
+	{
+		if(folder ? !folders.add(path) : !files.add(path))return;
+		if(isCovered(path))return;
+
+		if(folder)
+		{
+			//Selections inside the folder are covered now
+			for(File descendant : getSelectedDescendants(path))
+			{
+				if(!isCoveredExcept(descendant, path))count(descendant, -1);
+			}
+		}
+		count(path, 1);
+		listener.onSummaryChanged();
+	}
+
+	@UiThread
+	void remove(@NonNull File path, boolean folder)
+	{
+		if(folder ? !folders.remove(path) : !files.remove(path))return;
+		if(isCovered(path))return;
+
+		count(path, -1);
+		if(folder)
+		{
+			//Selections inside the folder are counted again unless covered by another folder
+			for(File descendant : getSelectedDescendants(path))
+			{
+				if(!isCovered(descendant))count(descendant, 1);
+			}
+		}
+		listener.onSummaryChanged();
+	}
+
+	@UiThread
+	void clear()
+	{
+		files.clear();
+		folders.clear();
+		totalSize = 0;
+		totalFileCount = 0;
+		pendingCount = 0;
+		listener.onSummaryChanged();
+	}
+
+	/**
+	 * @return Copy of the known sizes and file counts of files and folders
+	 */
+	@NonNull
+	@UiThread
+	Map<File, FolderInfo> getKnownInfos()
+	{
+		return new HashMap<>(infos);
+	}
+
+	/**
+	 * Stops all running measurements.
+	 */
+	void cancel()
+	{
+		tasks.cancelAll();
+		mainHandler.removeCallbacksAndMessages(null);
+	}
+
+	/**
+	 * @return Total size in bytes of all measured selections
+	 */
+	@UiThread
+	long getTotalSize()
+	{
+		return totalSize;
+	}
+
+	/**
+	 * @return Number of files of all measured selections
+	 */
+	@UiThread
+	long getTotalFileCount()
+	{
+		return totalFileCount;
+	}
+
+	/**
+	 * @return True if the totals are complete
+	 */
+	@UiThread
+	boolean isComplete()
+	{
+		return pendingCount == 0;
+	}
+
+	/**
+	 * Adds or subtracts the size and file count of a path.
+	 * Paths without known size are counted as pending and measured in the background.
+	 */
+	@UiThread
+	private void count(@NonNull File path, int sign)
+	{
+		FolderInfo info = infos.get(path);
+		if(info == null)
+		{
+			pendingCount += sign;
+			if(sign > 0)measure(path, folders.contains(path));
+			return;
+		}
+		totalSize += sign * info.getSize();
+		totalFileCount += sign * info.getFileCount();
+	}
+
+	@UiThread
+	private void putInfo(@NonNull File path, @NonNull FolderInfo info)
+	{
+		FolderInfo previous = infos.put(path, info);
+		if(!isCounted(path))return;
+
+		//Replace the pending or outdated values of a counted path
+		if(previous == null)pendingCount--;
+		else
+		{
+			totalSize -= previous.getSize();
+			totalFileCount -= previous.getFileCount();
+		}
+		totalSize += info.getSize();
+		totalFileCount += info.getFileCount();
+		listener.onSummaryChanged();
+	}
+
+	@UiThread
+	private void measure(@NonNull File path, boolean folder)
+	{
+		if(!measuring.add(path))return;
+		tasks.execute(() ->
+		{
+			FolderInfo info = folder ? FolderCrawler.getFolderInfo(storageBackend, path) : stat(path);
+			if(Thread.currentThread().isInterrupted())return;
+			mainHandler.post(() ->
+			{
+				measuring.remove(path);
+				if(!infos.containsKey(path))putInfo(path, info);
+			});
+		});
+	}
+
+	@NonNull
+	@WorkerThread
+	private FolderInfo stat(@NonNull File file)
+	{
+		StorageBackend.Attributes attributes = storageBackend.stat(file);
+		return new FolderInfo(attributes != null ? attributes.getSize() : 0, 1);
+	}
+
+	/**
+	 * @return True if the path is selected and not inside a selected folder
+	 */
+	private boolean isCounted(@NonNull File path)
+	{
+		return (files.contains(path) || folders.contains(path)) && !isCovered(path);
+	}
+
+	/**
+	 * @return True if a parent folder of the path is selected
+	 */
+	private boolean isCovered(@NonNull File path)
+	{
+		return isCoveredExcept(path, null);
+	}
+
+	private boolean isCoveredExcept(@NonNull File path, @Nullable File ignoredFolder)
+	{
+		for(File parent = path.getParentFile(); parent != null; parent = parent.getParentFile())
+		{
+			if(folders.contains(parent) && !parent.equals(ignoredFolder))return true;
+		}
+		return false;
+	}
+
+	@NonNull
+	private List<File> getSelectedDescendants(@NonNull File folder)
+	{
+		String prefix = folder.getAbsolutePath() + File.separator;
+		List<File> descendants = new ArrayList<>();
+		for(File file : files)
+		{
+			if(file.getAbsolutePath().startsWith(prefix))descendants.add(file);
+		}
+		for(File selectedFolder : folders)
+		{
+			if(selectedFolder.getAbsolutePath().startsWith(prefix))descendants.add(selectedFolder);
+		}
+		return descendants;
+	}
+
+	interface Listener
+	{
+		@UiThread
+		void onSummaryChanged();
+	}
+}
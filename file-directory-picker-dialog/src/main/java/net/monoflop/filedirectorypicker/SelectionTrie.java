@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Normalized selection stored as a trie of path segments.
+ * Selecting a folder removes all selected descendants, selecting a path inside
+ * an already selected folder is ignored. Both take time linear in the path length
+ * (plus the removed descendants), so overlapping selections are never returned twice.
+ *
+ * @author Philipp Kutsch
+ */
+final class SelectionTrie
+{
+	private static final Pattern SEPARATOR = Pattern.compile(Pattern.quote(File.separator));
+
+	private final Node root = new Node();
+	private int fileCount;
+	private int folderCount;
+
+	/**
+	 * Creates the normalized selection of the given files and folders.
+	 *
+	 * @param files Selected files
+	 * @param folders Selected folders
+	 * @return Selection trie
+	 */
+	@NonNull
+	static SelectionTrie of(@NonNull Collection<File> files, @NonNull Collection<File> folders)
+	{
+		SelectionTrie selectionTrie = new SelectionTrie();
+		//Folders first, covered files are dropped without being inserted
+		for(File folder : folders)selectionTrie.add(folder, true);
+		for(File file : files)selectionTrie.add(file, false);
+		return selectionTrie;
+	}
+
+	/**
+	 * Adds a file or folder to the selection.
+	 *
+	 * @param path Absolute path
+	 * @param folder Path is a folder
+	 * @return False if the path is already covered by the selection
+	 */
+	boolean add(@NonNull File path, boolean folder)
+	{
+		Node node = root;
+		for(String segment : getSegments(path))
+		{
+			if(node.mark == Node.FOLDER)return false;
+			Node child = node.children.get(segment);
+			if(child == null)
+			{
+				child = new Node();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+
+		if(node.mark == Node.FOLDER)return false;
+		if(node.mark == Node.FILE)
+		{
+			if(!folder)return false;
+			fileCount--;
+		}
+
+		if(folder)
+		{
+			//Selected descendants are covered by the folder now
+			removeDescendants(node);
+			node.mark = Node.FOLDER;
+			folderCount++;
+		}
+		else
+		{
+			node.mark = Node.FILE;
+			fileCount++;
+		}
+		node.path = path;
+		return true;
+	}
+
+	/**
+	 * Returns if the path or one of its parent folders is selected.
+	 *
+	 * @param path Absolute path
+	 * @return Path is covered by the selection
+	 */
+	boolean covers(@NonNull File path)
+	{
+		Node node = root;
+		for(String segment : getSegments(path))
+		{
+			if(node.mark == Node.FOLDER)return true;
+			node = node.children.get(segment);
+			if(node == null)return false;
+		}
+		return node.mark != Node.NONE;
+	}
+
+	/**
+	 * @return Selected files outside of all selected folders
+	 */
+	@NonNull
+	List<File> getFiles()
+	{
+		return collect(Node.FILE, fileCount);
+	}
+
+	/**
+	 * @return Selected folders, none of them is inside another one
+	 */
+	@NonNull
+	List<File> getFolders()
+	{
+		return collect(Node.FOLDER, folderCount);
+	}
+
+	@NonNull
+	private List<File> collect(int mark, int count)
+	{
+		List<File> paths = new ArrayList<>(count);
+		collect(root, mark, paths);
+		return paths;
+	}
+
+	/**
+	 * Adds the marked paths below the node in insertion order.
+	 * Recursion depth is bounded by the path depth.
+	 */
+	private static void collect(@NonNull Node node, int mark, @NonNull List<File> paths)
+	{
+		if(node.mark == mark)paths.add(node.path);
+		for(Node child : node.children.values())collect(child, mark, paths);
+	}
+
+	private void removeDescendants(@NonNull Node node)
+	{
+		Deque<Node> stack = new ArrayDeque<>(node.children.values());
+		while(!stack.isEmpty())
+		{
+			Node descendant = stack.pop();
+			if(descendant.mark == Node.FILE)fileCount--;
+			else if(descendant.mark == Node.FOLDER)folderCount--;
+			stack.addAll(descendant.children.values());
+		}
+		node.children.clear();
+	}
+
+	@NonNull
+	private static String[] getSegments(@NonNull File path)
+	{
+		String absolutePath = path.getAbsolutePath();
+		int start = 0;
+		while(start < absolutePath.length() && absolutePath.charAt(start) == File.separatorChar)start++;
+		if(start == absolutePath.length())return new String[0];
+		return SEPARATOR.split(absolutePath.substring(start));
+	}
+
+	private static final class Node
+	{
+		private static final int NONE = 0;
+		private static final int FILE = 1;
+		private static final int FOLDER = 2;
+
+		private final Map<String, Node> children = new LinkedHashMap<>(4);
+		private File path;
+		private int mark = NONE;
+	}
+}
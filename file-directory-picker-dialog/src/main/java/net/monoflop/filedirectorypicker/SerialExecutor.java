@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one after another in submission order on a shared executor,
+ * even if the shared executor uses several threads.
+ *
+ * @author Philipp Kutsch
+ */
+final class SerialExecutor implements Executor
+{
+	private final Executor executor;
+	private final Queue<Runnable> pendingTasks = new ArrayDeque<>();
+	private boolean running;
+
+	SerialExecutor(@NonNull Executor executor)
+	{
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(@NonNull Runnable runnable)
+	{
+		synchronized(this)
+		{
+			pendingTasks.add(runnable);
+			if(running)return;
+			running = true;
+		}
+		executor.execute(this::runTasks);
+	}
+
+	private void runTasks()
+	{
+		while(true)
+		{
+			Runnable task;
+			synchronized(this)
+			{
+				task = pendingTasks.poll();
+				if(task == null)
+				{
+					running = false;
+					return;
+				}
+			}
+			task.run();
+		}
+	}
+}
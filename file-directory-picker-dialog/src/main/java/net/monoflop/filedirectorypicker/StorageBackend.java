@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Storage the picker lists, crawls and watches.
+ * Paths are represented as File objects, which do not need to exist
+ * on the local file system (e.g. document trees or in memory trees).
+ *
+ * Implementations must be thread safe.
+ *
+ * @author Philipp Kutsch
+ */
+public interface StorageBackend
+{
+	/**
+	 * Returns the attributes of all readable children of the directory.
+	 *
+	 * @param directory Directory
+	 * @return Children in no particular order
+	 * @throws IOException If the directory can not be listed
+	 */
+	@NonNull
+	@WorkerThread
+	List<Attributes> list(@NonNull File directory) throws IOException;
+
+	/**
+	 * Returns the attributes of a single path.
+	 *
+	 * @param file Path
+	 * @return Attributes or null if the path does not exist or is not readable
+	 */
+	@Nullable
+	@WorkerThread
+	Attributes stat(@NonNull File file);
+
+	/**
+	 * Returns if the directory has no children.
+	 * Directories which can not be read are reported as empty.
+	 *
+	 * @param directory Directory
+	 * @return Directory is empty or not readable
+	 */
+	@WorkerThread
+	boolean isEmpty(@NonNull File directory);
+
+	/**
+	 * Reads the first bytes of a file, e.g. to detect its type from magic bytes.
+	 * Storages without file contents keep the default, which reads nothing.
+	 *
+	 * @param file File
+	 * @param buffer Destination, filled from the start
+	 * @return Number of bytes read, less than the buffer length only at the end of the file
+	 * @throws IOException If the file can not be read
+	 */
+	@WorkerThread
+	default int readHeader(@NonNull File file, @NonNull byte[] buffer) throws IOException
+	{
+		return 0;
+	}
+
+	/**
+	 * Watches the directory for added, removed or modified children.
+	 * The listener may be called on any thread.
+	 *
+	 * @param directory Directory
+	 * @param listener Change listener
+	 * @return Closing the returned handle stops watching
+	 * @throws IOException If the directory can not be watched
+	 */
+	@NonNull
+	Closeable watch(@NonNull File directory, @NonNull WatchListener listener) throws IOException;
+
+	/**
+	 * Directory change listener.
+	 */
+	interface WatchListener
+	{
+		void onChanged(@NonNull File directory);
+	}
+
+	/**
+	 * Attributes of a file or folder.
+	 */
+	final class Attributes
+	{
+		private final String name;
+		private final boolean directory;
+		private final boolean hidden;
+		private final long size;
+		private final long lastModified;
+
+		private Attributes(@NonNull String name, boolean directory, boolean hidden, long size, long lastModified)
+		{
+			this.name = name;
+			this.directory = directory;
+			this.hidden = hidden;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		@NonNull
+		public static Attributes directory(@NonNull String name, boolean hidden, long lastModified)
+		{
+			return new Attributes(name, true, hidden, 0, lastModified);
+		}
+
+		@NonNull
+		public static Attributes file(@NonNull String name, boolean hidden, long size, long lastModified)
+		{
+			return new Attributes(name, false, hidden, size, lastModified);
+		}
+
+		@NonNull
+		public String getName()
+		{
+			return name;
+		}
+
+		public boolean isDirectory()
+		{
+			return directory;
+		}
+
+		public boolean isFile()
+		{
+			return !directory;
+		}
+
+		public boolean isHidden()
+		{
+			return hidden;
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+
+		public long getLastModified()
+		{
+			return lastModified;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Environment;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.os.EnvironmentCompat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process wide cache of all mounted storage volumes.
+ *
+ * Volumes are enumerated once without reflection, by resolving the
+ * app specific directories of every volume back to the volume root.
+ * The cache is dropped and listeners are notified whenever a volume
+ * gets mounted, unmounted or removed.
+ *
+ * @author Philipp Kutsch
+ */
+final class StorageVolumes
+{
+	//Every app specific directory is located below this path of its volume
+	private static final String ANDROID_DATA_DIRECTORY = File.separator + "Android" + File.separator + "data";
+
+	private static final List<VolumeListener> volumeListeners = new CopyOnWriteArrayList<>();
+
+	//Guarded by StorageVolumes.class
+	private static List<Volume> volumes;
+	private static BroadcastReceiver mountReceiver;
+
+	private StorageVolumes()
+	{
+	}
+
+	/**
+	 * Returns all mounted volumes. The primary volume comes first.
+	 * The first call registers for mount broadcasts.
+	 *
+	 * @param context Context
+	 * @return Mounted volumes
+	 */
+	@NonNull
+	@WorkerThread
+	static synchronized List<Volume> get(@NonNull Context context)
+	{
+		Context applicationContext = context.getApplicationContext();
+		if(mountReceiver == null)
+		{
+			mountReceiver = new BroadcastReceiver()
+			{
+				@Override
+				public void onReceive(Context context, Intent intent)
+				{
+					invalidate();
+				}
+			};
+
+			IntentFilter intentFilter = new IntentFilter();
+			intentFilter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+			intentFilter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+			intentFilter.addAction(Intent.ACTION_MEDIA_REMOVED);
+			intentFilter.addAction(Intent.ACTION_MEDIA_EJECT);
+			intentFilter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+			intentFilter.addDataScheme("file");
+			applicationContext.registerReceiver(mountReceiver, intentFilter);
+		}
+
+		if(volumes == null)volumes = Collections.unmodifiableList(enumerate(applicationContext));
+		return volumes;
+	}
+
+	/**
+	 * Returns the volume containing the path.
+	 *
+	 * @param volumes Volumes
+	 * @param file Path
+	 * @return Volume or null if the path is not located on any volume
+	 */
+	@Nullable
+	static Volume find(@NonNull List<Volume> volumes, @NonNull File file)
+	{
+		String path = file.getAbsolutePath();
+		Volume match = null;
+		for(Volume volume : volumes)
+		{
+			String rootPath = volume.getRoot().getAbsolutePath();
+			boolean contained = path.equals(rootPath) || path.startsWith(rootPath + File.separator);
+
+			//Volumes may be nested (e.g. emulated storage below /storage)
+			if(contained && (match == null || rootPath.length() > match.getRoot().getAbsolutePath().length()))
+				match = volume;
+		}
+		return match;
+	}
+
+	static void addVolumeListener(@NonNull VolumeListener volumeListener)
+	{
+		volumeListeners.add(volumeListener);
+	}
+
+	static void removeVolumeListener(@NonNull VolumeListener volumeListener)
+	{
+		volumeListeners.remove(volumeListener);
+	}
+
+	private static void invalidate()
+	{
+		synchronized(StorageVolumes.class)
+		{
+			volumes = null;
+		}
+
+		for(VolumeListener volumeListener : volumeListeners)
+		{
+			volumeListener.onVolumesChanged();
+		}
+	}
+
+	@NonNull
+	private static List<Volume> enumerate(@NonNull Context context)
+	{
+		List<Volume> mountedVolumes = new ArrayList<>();
+
+		//First directory is always located on the primary volume
+		File[] appDirectories = context.getExternalFilesDirs(null);
+		for(int i = 0; i < appDirectories.length; i++)
+		{
+			//Null if the volume is currently not available
+			File appDirectory = appDirectories[i];
+			if(appDirectory == null)continue;
+
+			String state = EnvironmentCompat.getStorageState(appDirectory);
+			if(!Environment.MEDIA_MOUNTED.equals(state) && !Environment.MEDIA_MOUNTED_READ_ONLY.equals(state))continue;
+
+			String appPath = appDirectory.getAbsolutePath();
+			int dataIndex = appPath.indexOf(ANDROID_DATA_DIRECTORY);
+			if(dataIndex <= 0)continue;
+
+			File root = new File(appPath.substring(0, dataIndex));
+			mountedVolumes.add(new Volume(root, getDescription(context, root, i), i == 0));
+		}
+
+		return mountedVolumes;
+	}
+
+	@NonNull
+	private static String getDescription(@NonNull Context context, @NonNull File root, int index)
+	{
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+		{
+			StorageManager storageManager = (StorageManager) context.getSystemService(Context.STORAGE_SERVICE);
+			StorageVolume storageVolume = storageManager != null ? storageManager.getStorageVolume(root) : null;
+			if(storageVolume != null)return storageVolume.getDescription(context);
+		}
+
+		if(index == 0)return context.getString(R.string.volume_internal);
+		return context.getString(R.string.volume_external, index);
+	}
+
+	/**
+	 * Mounted storage volume.
+	 */
+	static final class Volume
+	{
+		private final File root;
+		private final String description;
+		private final boolean primary;
+
+		Volume(@NonNull File root, @NonNull String description, boolean primary)
+		{
+			this.root = root;
+			this.description = description;
+			this.primary = primary;
+		}
+
+		@NonNull
+		File getRoot()
+		{
+			return root;
+		}
+
+		@NonNull
+		String getDescription()
+		{
+			return description;
+		}
+
+		boolean isPrimary()
+		{
+			return primary;
+		}
+
+		@NonNull
+		@Override
+		public String toString()
+		{
+			//Shown by the volume spinner
+			return description;
+		}
+	}
+
+	/**
+	 * Called on the main thread if volumes got mounted or removed.
+	 */
+	interface VolumeListener
+	{
+		void onVolumesChanged();
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Group of tasks scheduled on a shared executor.
+ * Tasks of a group can be cancelled together without affecting
+ * other users of the same executor, e.g. when the dialog navigates
+ * to another folder or gets destroyed.
+ *
+ * @author Philipp Kutsch
+ */
+final class TaskGroup
+{
+	private final Executor executor;
+	private final Set<FutureTask<?>> pendingTasks = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	TaskGroup(@NonNull Executor executor)
+	{
+		this.executor = executor;
+	}
+
+	/**
+	 * Schedules a new task.
+	 *
+	 * @param runnable Task
+	 */
+	void execute(@NonNull Runnable runnable)
+	{
+		FutureTask<Void> task = new FutureTask<Void>(runnable, null)
+		{
+			@Override
+			protected void done()
+			{
+				pendingTasks.remove(this);
+			}
+		};
+		pendingTasks.add(task);
+		executor.execute(task);
+	}
+
+	/**
+	 * @return Number of queued and running tasks of this group
+	 */
+	int getPendingCount()
+	{
+		return pendingTasks.size();
+	}
+
+	/**
+	 * Cancels all queued tasks and interrupts running tasks of this group.
+	 */
+	void cancelAll()
+	{
+		for(FutureTask<?> task : pendingTasks)
+		{
+			task.cancel(true);
+		}
+		pendingTasks.clear();
+	}
+}
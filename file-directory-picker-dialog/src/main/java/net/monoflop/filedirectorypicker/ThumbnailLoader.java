@@ -0,0 +1,361 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads downsampled image and video previews of file entries.
+ *
+ * Thumbnails are decoded on a background pool, kept in a memory cache bounded by bytes
+ * and stored as small JPEG files inside a disk cache directory.
+ * Cache keys contain size and modification time, so changed files are decoded again.
+ *
+ * @author Philipp Kutsch
+ */
+final class ThumbnailLoader
+{
+	private static final String[] IMAGE_FILE_ENDINGS = {"jpg", "jpeg", "png", "gif", "webp", "bmp"};
+	private static final String[] VIDEO_FILE_ENDINGS = {"mp4", "3gp", "mkv", "webm"};
+
+	private static final int DISK_CACHE_QUALITY = 80;
+	private static final long MAX_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+	//Disk cache size is checked after this number of writes
+	private static final int DISK_CACHE_TRIM_INTERVAL = 32;
+
+	private final int thumbnailSize;
+	private final File diskCacheDirectory;
+	private final Executor executor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final LruCache<String, Bitmap> memoryCache;
+
+	//Keys of running prefetches, avoids decoding the same file twice
+	private final Map<String, Boolean> prefetching = new ConcurrentHashMap<>();
+	private int writesSinceTrim;
+
+	//Memory cache lookups of bound entries, only accessed on the ui thread
+	private long cacheHits;
+	private long cacheRequests;
+
+	/**
+	 * @param thumbnailSize Edge length of the square thumbnails in pixel
+	 * @param diskCacheDirectory Disk cache directory
+	 * @param executor Executor used for decoding
+	 */
+	ThumbnailLoader(int thumbnailSize, @NonNull File diskCacheDirectory, @NonNull Executor executor)
+	{
+		this.thumbnailSize = thumbnailSize;
+		this.diskCacheDirectory = diskCacheDirectory;
+		this.executor = executor;
+
+		//Use up to an eighth of the available heap
+		int maxMemoryCacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+		this.memoryCache = new LruCache<String, Bitmap>(maxMemoryCacheSize)
+		{
+			@Override
+			protected int sizeOf(String key, Bitmap bitmap)
+			{
+				return bitmap.getAllocationByteCount();
+			}
+		};
+	}
+
+	/**
+	 * Returns if a thumbnail can be created for the file.
+	 *
+	 * @param entry Entry
+	 * @return Thumbnail supported
+	 */
+	static boolean isSupported(@NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		if(entry.getEntryType() != FileDirectoryPickerDialog.Entry.EntryType.File)return false;
+		return isImage(entry.getName()) || isVideo(entry.getName());
+	}
+
+	/**
+	 * Returns the thumbnail if it is already in memory.
+	 *
+	 * @param entry File entry
+	 * @return Thumbnail or null
+	 */
+	@Nullable
+	@UiThread
+	Bitmap getCached(@NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		Bitmap thumbnail = memoryCache.get(getKey(entry));
+		cacheRequests++;
+		if(thumbnail != null)cacheHits++;
+		return thumbnail;
+	}
+
+	/**
+	 * @return Number of thumbnails found in memory by {@link #getCached(FileDirectoryPickerDialog.Entry)}
+	 */
+	@UiThread
+	long getCacheHits()
+	{
+		return cacheHits;
+	}
+
+	/**
+	 * @return Number of calls to {@link #getCached(FileDirectoryPickerDialog.Entry)}
+	 */
+	@UiThread
+	long getCacheRequests()
+	{
+		return cacheRequests;
+	}
+
+	/**
+	 * Loads the thumbnail in the background.
+	 *
+	 * @param entry File entry
+	 * @param callback Called on the main thread unless the request got cancelled
+	 * @return Request, cancel it if the thumbnail is no longer needed
+	 */
+	@NonNull
+	@UiThread
+	Request load(@NonNull FileDirectoryPickerDialog.Entry entry, @NonNull Callback callback)
+	{
+		Request request = new Request();
+		String key = getKey(entry);
+		File file = entry.getFile();
+		boolean video = isVideo(entry.getName());
+
+		executor.execute(() ->
+		{
+			if(request.cancelled)return;
+
+			Bitmap thumbnail = getThumbnail(key, file, video, request);
+			if(thumbnail == null)return;
+
+			mainHandler.post(() ->
+			{
+				if(!request.cancelled)callback.onThumbnailLoaded(thumbnail);
+			});
+		});
+		return request;
+	}
+
+	/**
+	 * Loads the thumbnail into the memory cache, e.g. for rows shortly before they get visible.
+	 *
+	 * @param entry File entry
+	 */
+	@UiThread
+	void prefetch(@NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		String key = getKey(entry);
+		if(memoryCache.get(key) != null || prefetching.put(key, Boolean.TRUE) != null)return;
+
+		File file = entry.getFile();
+		boolean video = isVideo(entry.getName());
+		executor.execute(() ->
+		{
+			getThumbnail(key, file, video, null);
+			prefetching.remove(key);
+		});
+	}
+
+	/**
+	 * Drops all thumbnails held in memory.
+	 */
+	void evictAll()
+	{
+		memoryCache.evictAll();
+	}
+
+	@Nullable
+	@WorkerThread
+	private Bitmap getThumbnail(@NonNull String key, @NonNull File file, boolean video, @Nullable Request request)
+	{
+		Bitmap thumbnail = memoryCache.get(key);
+		if(thumbnail != null)return thumbnail;
+
+		File diskCacheFile = new File(diskCacheDirectory, key);
+		thumbnail = BitmapFactory.decodeFile(diskCacheFile.getAbsolutePath());
+		if(thumbnail == null)
+		{
+			//Skip the expensive decode if the row got recycled meanwhile
+			if(request != null && request.cancelled)return null;
+
+			thumbnail = video ? decodeVideo(file) : decodeImage(file);
+			if(thumbnail == null)return null;
+			writeDiskCache(diskCacheFile, thumbnail);
+		}
+
+		memoryCache.put(key, thumbnail);
+		return thumbnail;
+	}
+
+	@Nullable
+	@WorkerThread
+	private Bitmap decodeImage(@NonNull File file)
+	{
+		//Read the dimensions only and decode a downsampled bitmap afterwards
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+		if(options.outWidth <= 0 || options.outHeight <= 0)return null;
+
+		int sampleSize = 1;
+		while(options.outWidth / (sampleSize * 2) >= thumbnailSize
+				&& options.outHeight / (sampleSize * 2) >= thumbnailSize)
+		{
+			sampleSize *= 2;
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+		Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+		if(bitmap == null)return null;
+
+		return ThumbnailUtils.extractThumbnail(bitmap, thumbnailSize, thumbnailSize);
+	}
+
+	@Nullable
+	@WorkerThread
+	private Bitmap decodeVideo(@NonNull File file)
+	{
+		Bitmap frame = ThumbnailUtils.createVideoThumbnail(file.getAbsolutePath(), MediaStore.Video.Thumbnails.MINI_KIND);
+		if(frame == null)return null;
+		return ThumbnailUtils.extractThumbnail(frame, thumbnailSize, thumbnailSize);
+	}
+
+	@WorkerThread
+	private void writeDiskCache(@NonNull File diskCacheFile, @NonNull Bitmap thumbnail)
+	{
+		if(!diskCacheDirectory.isDirectory() && !diskCacheDirectory.mkdirs())return;
+
+		File temporaryFile = new File(diskCacheFile.getAbsolutePath() + ".tmp" + Thread.currentThread().getId());
+		try(OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temporaryFile)))
+		{
+			thumbnail.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, outputStream);
+		}
+		catch(IOException e)
+		{
+			//noinspection ResultOfMethodCallIgnored
+			temporaryFile.delete();
+			return;
+		}
+
+		if(!temporaryFile.renameTo(diskCacheFile))
+		{
+			//noinspection ResultOfMethodCallIgnored
+			temporaryFile.delete();
+		}
+
+		boolean trim;
+		synchronized(this)
+		{
+			trim = ++writesSinceTrim >= DISK_CACHE_TRIM_INTERVAL;
+			if(trim)writesSinceTrim = 0;
+		}
+		if(trim)trimDiskCache();
+	}
+
+	/**
+	 * Deletes the least recently modified thumbnails until the disk cache fits its size limit.
+	 */
+	@WorkerThread
+	private void trimDiskCache()
+	{
+		File[] files = diskCacheDirectory.listFiles();
+		if(files == null)return;
+
+		long totalSize = 0;
+		for(File file : files)totalSize += file.length();
+		if(totalSize <= MAX_DISK_CACHE_SIZE)return;
+
+		Arrays.sort(files, (o1, o2) -> Long.compare(o1.lastModified(), o2.lastModified()));
+		for(File file : files)
+		{
+			if(totalSize <= MAX_DISK_CACHE_SIZE)break;
+			long length = file.length();
+			if(file.delete())totalSize -= length;
+		}
+	}
+
+	@NonNull
+	private String getKey(@NonNull FileDirectoryPickerDialog.Entry entry)
+	{
+		String path = entry.getFile().getAbsolutePath();
+		return String.format(Locale.US, "%08x_%d_%d_%d_%d", path.hashCode(), path.length(),
+				entry.getSize(), entry.getLastModified(), thumbnailSize);
+	}
+
+	private static boolean isImage(@NonNull String name)
+	{
+		return hasFileEnding(name, IMAGE_FILE_ENDINGS);
+	}
+
+	private static boolean isVideo(@NonNull String name)
+	{
+		return hasFileEnding(name, VIDEO_FILE_ENDINGS);
+	}
+
+	private static boolean hasFileEnding(@NonNull String name, @NonNull String[] fileEndings)
+	{
+		String lowerCaseName = name.toLowerCase(Locale.US);
+		for(String fileEnding : fileEndings)
+		{
+			if(lowerCaseName.endsWith("." + fileEnding))return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Pending thumbnail load.
+	 */
+	static final class Request
+	{
+		private volatile boolean cancelled;
+
+		void cancel()
+		{
+			cancelled = true;
+		}
+	}
+
+	interface Callback
+	{
+		void onThumbnailLoaded(@NonNull Bitmap thumbnail);
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lists and crawls synthetic trees of an {@link InMemoryStorageBackend} on the JVM.
+ * All work runs on a {@link ManualExecutor}, so results do not depend on thread timing.
+ */
+public class DirectoryListerTest
+{
+	private static final File ROOT = new File("/storage");
+
+	//Synthetic tree of 100 folders with 1000 files each
+	private static final int FOLDER_COUNT = 100;
+	private static final int FILES_PER_FOLDER = 1000;
+
+	private InMemoryStorageBackend storageBackend;
+	private ManualExecutor executor;
+
+	@Before
+	public void setUp()
+	{
+		storageBackend = new InMemoryStorageBackend(ROOT);
+		executor = new ManualExecutor();
+	}
+
+	@Test
+	public void listsFoldersBeforeFilesInNameOrder()
+	{
+		storageBackend.addFile(new File(ROOT, "b.txt"), 10, 0);
+		storageBackend.addFile(new File(ROOT, "a.txt"), 10, 0);
+		storageBackend.addFile(new File(ROOT, ".hidden"), 10, 0);
+		storageBackend.addFile(new File(ROOT, "y/file.txt"), 10, 0);
+		storageBackend.addFile(new File(ROOT, "x/file.txt"), 10, 0);
+		storageBackend.addDirectory(new File(ROOT, "empty"), 0);
+
+		RecordingSubscriber subscriber = list(newBuilder(), Long.MAX_VALUE);
+
+		assertTrue(subscriber.complete);
+		assertNull(subscriber.error);
+		assertEquals(Arrays.asList("x", "y", "a.txt", "b.txt"), subscriber.getNames());
+	}
+
+	@Test
+	public void filtersFileEndingsAndSizes()
+	{
+		storageBackend.addFile(new File(ROOT, "small.jpg"), 10, 0);
+		storageBackend.addFile(new File(ROOT, "large.jpg"), 1000, 0);
+		storageBackend.addFile(new File(ROOT, "large.txt"), 1000, 0);
+
+		RecordingSubscriber subscriber = list(newBuilder()
+				.filterFileEndings("jpg")
+				.filterSize(100, Long.MAX_VALUE), Long.MAX_VALUE);
+
+		assertEquals(Arrays.asList("large.jpg"), subscriber.getNames());
+	}
+
+	@Test
+	public void listsAndCrawlsSyntheticTree()
+	{
+		createSyntheticTree();
+
+		RecordingSubscriber subscriber = list(newBuilder().crawlFolderInfo(true), Long.MAX_VALUE);
+
+		assertTrue(subscriber.complete);
+		assertEquals(FOLDER_COUNT, subscriber.entries.size());
+		assertEquals(FOLDER_COUNT, subscriber.folderInfos.size());
+		for(int folder = 0; folder < FOLDER_COUNT; folder++)
+		{
+			FolderInfo folderInfo = subscriber.folderInfos.get(new File(ROOT, folderName(folder)));
+			assertNotNull(folderInfo);
+			assertEquals(FILES_PER_FOLDER, folderInfo.getFileCount());
+			assertEquals(expectedFolderSize(folder), folderInfo.getSize());
+		}
+
+		ListingMetrics metrics = subscriber.metrics;
+		assertNotNull(metrics);
+		assertEquals(FOLDER_COUNT, metrics.getEntryCount());
+	}
+
+	@Test
+	public void deliversOnlyRequestedBatches()
+	{
+		for(int i = 0; i < 50; i++)
+		{
+			storageBackend.addFile(new File(ROOT, String.format("file%02d", i)), 1, 0);
+		}
+
+		RecordingSubscriber subscriber = list(newBuilder().batchSize(10), 1);
+		assertEquals(1, subscriber.batches.size());
+		assertFalse(subscriber.complete);
+
+		subscriber.subscription.request(2);
+		executor.runAll();
+		assertEquals(3, subscriber.batches.size());
+		assertFalse(subscriber.complete);
+
+		subscriber.subscription.request(Long.MAX_VALUE);
+		executor.runAll();
+		assertEquals(5, subscriber.batches.size());
+		assertEquals(50, subscriber.entries.size());
+		assertTrue(subscriber.complete);
+	}
+
+	@Test
+	public void crawlsOnlyWhileSignalsAreRequested()
+	{
+		createSyntheticTree();
+
+		//Batches of 100 folders use the first signal, no crawl is started without demand
+		RecordingSubscriber subscriber = list(newBuilder().crawlFolderInfo(true), 1);
+		assertEquals(1, subscriber.batches.size());
+		assertTrue(subscriber.folderInfos.isEmpty());
+
+		subscriber.subscription.request(10);
+		executor.runAll();
+		assertEquals(10, subscriber.folderInfos.size());
+		assertFalse(subscriber.complete);
+	}
+
+	@Test
+	public void reportsInvalidRequestsAsError()
+	{
+		storageBackend.addFile(new File(ROOT, "file"), 1, 0);
+
+		RecordingSubscriber subscriber = list(newBuilder(), 0);
+
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertTrue(subscriber.entries.isEmpty());
+		assertFalse(subscriber.complete);
+	}
+
+	@Test
+	public void reportsMissingDirectoryAsError()
+	{
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		newBuilder().build().list(new File(ROOT, "missing"), subscriber);
+		executor.runAll();
+
+		assertNotNull(subscriber.error);
+		assertFalse(subscriber.complete);
+	}
+
+	@Test
+	public void stopsAfterCancel()
+	{
+		createSyntheticTree();
+
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		newBuilder().crawlFolderInfo(true).build().list(ROOT, subscriber).cancel();
+		executor.runAll();
+
+		assertTrue(subscriber.entries.isEmpty());
+		assertTrue(subscriber.folderInfos.isEmpty());
+		assertFalse(subscriber.complete);
+	}
+
+	private DirectoryLister.Builder newBuilder()
+	{
+		return new DirectoryLister.Builder()
+				.storageBackend(storageBackend)
+				.withExecutor(executor);
+	}
+
+	private RecordingSubscriber list(DirectoryLister.Builder builder, long initialRequest)
+	{
+		RecordingSubscriber subscriber = new RecordingSubscriber(initialRequest);
+		builder.build().list(ROOT, subscriber);
+		executor.runAll();
+		return subscriber;
+	}
+
+	private void createSyntheticTree()
+	{
+		for(int folder = 0; folder < FOLDER_COUNT; folder++)
+		{
+			File directory = new File(ROOT, folderName(folder));
+			for(int file = 0; file < FILES_PER_FOLDER; file++)
+			{
+				storageBackend.addFile(new File(directory, "file" + file), folder + file, 0);
+			}
+		}
+	}
+
+	private static String folderName(int folder)
+	{
+		return String.format("folder%03d", folder);
+	}
+
+	private static long expectedFolderSize(int folder)
+	{
+		//Sum of folder + file over all files
+		return (long) folder * FILES_PER_FOLDER + (long) FILES_PER_FOLDER * (FILES_PER_FOLDER - 1) / 2;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor queueing all tasks until the test runs them on its own thread.
+ * Replaces the shared pools, so listings run deterministically
+ * and without Android thread priorities.
+ */
+final class ManualExecutor implements Executor
+{
+	private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+	@Override
+	public synchronized void execute(@NonNull Runnable runnable)
+	{
+		tasks.add(runnable);
+	}
+
+	/**
+	 * Runs queued tasks including the tasks they schedule, until no task is left.
+	 *
+	 * @return Number of executed tasks
+	 */
+	int runAll()
+	{
+		int count = 0;
+		Runnable task;
+		while((task = poll()) != null)
+		{
+			task.run();
+			count++;
+		}
+		return count;
+	}
+
+	private synchronized Runnable poll()
+	{
+		return tasks.poll();
+	}
+}
@@ -0,0 +1,303 @@
+package net.monoflop.filedirectorypicker;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives the dialog against a temporary folder tree and keeps storage operations,
+ * drawable loads, allocations and navigation times within budgets.
+ * All background work runs directly on the calling thread, so every navigation
+ * is complete once the main looper is idle.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PickerPerformanceTest
+{
+	//Tree of 20 folders with 5 sub folders and 100 files each, next to one folder with 5000 files
+	private static final int FOLDER_COUNT = 20;
+	private static final int SUB_FOLDER_COUNT = 5;
+	private static final int FILES_PER_FOLDER = 100;
+	private static final int LARGE_FOLDER_FILES = 5000;
+
+	//Directory check of the click, snapshot validation and the listing itself
+	private static final int NAVIGATION_STAT_BUDGET = 3;
+	private static final long NAVIGATION_TIME_BUDGET_MS = 2000;
+	//Coarse, a per row drawable inflation allocates far more
+	private static final long BIND_ALLOCATION_BUDGET_BYTES = 64 * 1024;
+	private static final int BIND_ROUNDS = 10;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File root;
+	private File largeFolder;
+	private CountingStorageBackend storageBackend;
+	private FileDirectoryPickerDialog dialog;
+
+	public static class HostActivity extends AppCompatActivity
+	{
+		@Override
+		protected void onCreate(Bundle savedInstanceState)
+		{
+			setTheme(com.google.android.material.R.style.Theme_MaterialComponents_Light_NoActionBar);
+			super.onCreate(savedInstanceState);
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException
+	{
+		root = temporaryFolder.newFolder("root");
+		for(int folder = 0; folder < FOLDER_COUNT; folder++)
+		{
+			File folderFile = new File(root, String.format("folder%02d", folder));
+			for(int subFolder = 0; subFolder < SUB_FOLDER_COUNT; subFolder++)
+			{
+				createFiles(new File(folderFile, String.format("sub%d", subFolder)), 1);
+			}
+			createFiles(folderFile, FILES_PER_FOLDER);
+		}
+		largeFolder = new File(root, "large");
+		createFiles(largeFolder, LARGE_FOLDER_FILES);
+
+		storageBackend = new CountingStorageBackend(new FileStorageBackend());
+		HostActivity activity = Robolectric.buildActivity(HostActivity.class).setup().get();
+		dialog = FileDirectoryPickerDialog.newInstance(new FileDirectoryPickerDialog.Builder()
+				.requestPermission(false)
+				.rootDirectory(root)
+				.cacheListings(false)
+				.withExecutor(Runnable::run)
+				.build());
+		dialog.setStorageBackend(storageBackend);
+		dialog.show(activity.getSupportFragmentManager(), null);
+		activity.getSupportFragmentManager().executePendingTransactions();
+		idle();
+	}
+
+	@Test
+	public void navigationStaysWithinStorageBudget()
+	{
+		File folder = new File(root, "folder00");
+		storageBackend.reset();
+		navigateTo(folder);
+
+		assertEquals(FILES_PER_FOLDER + SUB_FOLDER_COUNT + 1, getAdapter().getItemCount());
+		assertEquals(1, storageBackend.getListCount());
+		assertTrue(storageBackend.getIsEmptyCount() <= SUB_FOLDER_COUNT);
+		assertTrue("stat calls: " + storageBackend.getStatCount(), storageBackend.getStatCount() <= NAVIGATION_STAT_BUDGET);
+		assertEquals(0, storageBackend.getReadHeaderCount());
+
+		//Ancestors are shown from their stored listing
+		storageBackend.reset();
+		navigateTo(root);
+		assertEquals(0, storageBackend.getListCount());
+		//Folders and the large folder, the root has no navigate back entry
+		assertEquals(FOLDER_COUNT + 1, getAdapter().getItemCount());
+	}
+
+	@Test
+	public void navigationStaysWithinTimeBudget()
+	{
+		//Warm up class loading and layout inflation
+		navigateTo(new File(root, "folder00"));
+		navigateTo(root);
+
+		long navigationTime = timeNavigation(largeFolder);
+		assertEquals(LARGE_FOLDER_FILES + 1, getAdapter().getItemCount());
+		assertTrue("navigation took " + navigationTime + "ms", navigationTime <= NAVIGATION_TIME_BUDGET_MS);
+	}
+
+	@Test
+	public void reselectionScalesWithListedEntries()
+	{
+		navigateTo(new File(root, "folder00"));
+		navigateTo(root);
+		long unselectedTime = timeNavigation(largeFolder);
+
+		//Select every file of the large folder, then list it again
+		EntryAdapter adapter = getAdapter();
+		for(int position = 0; position < adapter.getItemCount(); position++)
+		{
+			FileDirectoryPickerDialog.Entry entry = adapter.getEntry(position);
+			if(entry.getEntryType() == FileDirectoryPickerDialog.Entry.EntryType.File)
+			{
+				entry.setSelected(true);
+				dialog.onEntrySelected(entry, true);
+			}
+		}
+		navigateTo(root);
+		long selectedTime = timeNavigation(largeFolder);
+
+		adapter = getAdapter();
+		int selected = 0;
+		for(int position = 0; position < adapter.getItemCount(); position++)
+		{
+			if(adapter.getEntry(position).isSelected())selected++;
+		}
+		assertEquals(LARGE_FOLDER_FILES, selected);
+
+		//A quadratic reselection takes seconds for 5000 x 5000 entries
+		assertTrue("unselected " + unselectedTime + "ms, selected " + selectedTime + "ms",
+				selectedTime <= unselectedTime * 3 + 250);
+	}
+
+	@Test
+	public void bindLoadsNoDrawablesAndStaysWithinAllocationBudget()
+	{
+		navigateTo(new File(root, "folder00"));
+		List<FileDirectoryPickerDialog.Entry> entries = new ArrayList<>();
+		for(int position = 0; position < getAdapter().getItemCount(); position++)
+		{
+			entries.add(getAdapter().getEntry(position));
+		}
+
+		CountingContext context = new CountingContext(dialog.requireContext());
+		EntryAdapter adapter = new EntryAdapter(context, entries, dialog,
+				EntryAdapter.ViewMode.Default, null, null, false, false);
+		RecyclerView parent = new RecyclerView(context);
+		parent.setLayoutManager(new LinearLayoutManager(context));
+		EntryAdapter.EntryViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+
+		//Icons are loaded once by the adapter, binding only creates drawables from their state
+		context.resources.drawableLoads = 0;
+		for(int position = 0; position < entries.size(); position++)
+		{
+			adapter.onBindViewHolder(holder, position);
+		}
+		assertEquals(0, context.resources.drawableLoads);
+
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		for(int round = 0; round < BIND_ROUNDS; round++)
+		{
+			for(int position = 0; position < entries.size(); position++)
+			{
+				adapter.onBindViewHolder(holder, position);
+			}
+		}
+		long allocatedPerBind = (allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore)
+				/ (BIND_ROUNDS * entries.size());
+		assertTrue("allocated " + allocatedPerBind + " bytes per bind", allocatedPerBind <= BIND_ALLOCATION_BUDGET_BYTES);
+	}
+
+	private long timeNavigation(@NonNull File folder)
+	{
+		long start = System.nanoTime();
+		navigateTo(folder);
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private void navigateTo(@NonNull File folder)
+	{
+		FileDirectoryPickerDialog.Entry entry = new FileDirectoryPickerDialog.Entry();
+		entry.setEntryType(FileDirectoryPickerDialog.Entry.EntryType.Folder);
+		entry.setFile(folder);
+		dialog.onFolderClicked(entry);
+		idle();
+	}
+
+	@NonNull
+	private EntryAdapter getAdapter()
+	{
+		assertNotNull(dialog.getView());
+		RecyclerView recyclerView = dialog.getView().findViewById(R.id.structureRecycler);
+		return (EntryAdapter) recyclerView.getAdapter();
+	}
+
+	private static void idle()
+	{
+		shadowOf(Looper.getMainLooper()).idle();
+	}
+
+	private static void createFiles(@NonNull File folder, int count) throws IOException
+	{
+		if(!folder.mkdirs() && !folder.isDirectory())
+			throw new IOException("Could not create " + folder);
+		for(int i = 0; i < count; i++)
+		{
+			File file = new File(folder, String.format("file%04d.txt", i));
+			if(!file.createNewFile())
+				throw new IOException("Could not create " + file);
+		}
+	}
+
+	/**
+	 * Counts drawables loaded through the resources of this context.
+	 */
+	private static class CountingContext extends ContextWrapper
+	{
+		private final CountingResources resources;
+
+		CountingContext(@NonNull Context base)
+		{
+			super(base);
+			resources = new CountingResources(base.getResources());
+		}
+
+		@Override
+		public Resources getResources()
+		{
+			return resources;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static class CountingResources extends Resources
+	{
+		private int drawableLoads;
+
+		CountingResources(@NonNull Resources base)
+		{
+			super(base.getAssets(), base.getDisplayMetrics(), base.getConfiguration());
+		}
+
+		@Override
+		public Drawable getDrawable(int id, Theme theme)
+		{
+			drawableLoads++;
+			return super.getDrawable(id, theme);
+		}
+
+		@Override
+		public Drawable getDrawableForDensity(int id, int density, Theme theme)
+		{
+			drawableLoads++;
+			return super.getDrawableForDensity(id, density, theme);
+		}
+	}
+}
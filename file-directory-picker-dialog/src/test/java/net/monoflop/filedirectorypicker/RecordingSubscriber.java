@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Philipp Kutsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.monoflop.filedirectorypicker;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Subscriber keeping all received signals.
+ * Requests the initial amount on subscription, further signals are requested by the test.
+ */
+final class RecordingSubscriber implements DirectoryLister.Subscriber
+{
+	private final long initialRequest;
+
+	DirectoryLister.Subscription subscription;
+	final List<List<FileDirectoryPickerDialog.Entry>> batches = new ArrayList<>();
+	final List<FileDirectoryPickerDialog.Entry> entries = new ArrayList<>();
+	final Map<File, FolderInfo> folderInfos = new HashMap<>();
+	Throwable error;
+	ListingMetrics metrics;
+	int resetCount;
+	boolean complete;
+
+	RecordingSubscriber(long initialRequest)
+	{
+		this.initialRequest = initialRequest;
+	}
+
+	@Override
+	public void onSubscribe(@NonNull DirectoryLister.Subscription subscription)
+	{
+		this.subscription = subscription;
+		subscription.request(initialRequest);
+	}
+
+	@Override
+	public void onEntries(@NonNull List<FileDirectoryPickerDialog.Entry> entries)
+	{
+		batches.add(entries);
+		this.entries.addAll(entries);
+	}
+
+	@Override
+	public void onFolderInfo(@NonNull FileDirectoryPickerDialog.Entry entry, @NonNull FolderInfo folderInfo)
+	{
+		folderInfos.put(entry.getFile(), folderInfo);
+	}
+
+	@Override
+	public void onReset()
+	{
+		resetCount++;
+		batches.clear();
+		entries.clear();
+	}
+
+	@Override
+	public void onMetrics(@NonNull ListingMetrics listingMetrics)
+	{
+		metrics = listingMetrics;
+	}
+
+	@Override
+	public void onError(@NonNull Throwable throwable)
+	{
+		error = throwable;
+	}
+
+	@Override
+	public void onComplete()
+	{
+		complete = true;
+	}
+
+	/**
+	 * @return Names of all received entries in delivery order
+	 */
+	@NonNull
+	List<String> getNames()
+	{
+		List<String> names = new ArrayList<>(entries.size());
+		for(FileDirectoryPickerDialog.Entry entry : entries)
+		{
+			names.add(entry.getName());
+		}
+		return names;
+	}
+}